@@ -0,0 +1,122 @@
+package com.elminster.samplemvc.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal HTTP/1.1 client over plain sockets, one connection per request.
+ *
+ * Each client binds its own loopback address (127.0.0.x), so the server tells the clients apart
+ * by their remote address and gives each one its own client limiter.
+ */
+class LoopbackHttpClient {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InetAddress localAddress;
+    private final int port;
+
+    LoopbackHttpClient(InetAddress localAddress, int port) {
+        this.localAddress = localAddress;
+        this.port = port;
+    }
+
+    InetAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    /**
+     * @param index the index of the client
+     * @return 127.0.0.(index + 2) if it can be bound, 127.0.0.1 otherwise (e.g. macOS only has the latter)
+     */
+    static InetAddress loopbackAddress(int index) throws IOException {
+        InetAddress address = InetAddress.getByAddress(new byte[] { 127, 0, 0, (byte) (index + 2) });
+        try (Socket socket = new Socket()) {
+            socket.bind(new InetSocketAddress(address, 0));
+            return address;
+        } catch (IOException e) {
+            return InetAddress.getByName("127.0.0.1");
+        }
+    }
+
+    /**
+     * @return the status code
+     */
+    int get(String path) throws IOException {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return readStatus(socket.getInputStream());
+        }
+    }
+
+    /**
+     * Post a multipart request with one file part of generated content.
+     * @return the status code
+     */
+    int postFile(String path, String fileName, long size) throws IOException {
+        String boundary = "----load-" + Long.toHexString(System.nanoTime());
+        byte[] head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        try (Socket socket = connect()) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+            out.write(("POST " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                    + "Content-Type: multipart/form-data; boundary=" + boundary + "\r\n"
+                    + "Content-Length: " + (head.length + size + tail.length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.write(head);
+            byte[] content = new byte[BUFFER_SIZE];
+            for (long remains = size; remains > 0; ) {
+                int len = (int) Math.min(remains, content.length);
+                out.write(content, 0, len);
+                remains -= len;
+            }
+            out.write(tail);
+            out.flush();
+            return readStatus(socket.getInputStream());
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.bind(new InetSocketAddress(localAddress, 0));
+            socket.connect(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static int readStatus(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        InputStream buffered = new BufferedInputStream(in);
+        int b;
+        while ((b = buffered.read()) != -1 && b != '\n') {
+            line.append((char) b);
+        }
+        // HTTP/1.1 200 OK
+        String[] status = line.toString().trim().split(" ");
+        if (status.length < 2) {
+            throw new IOException("no status line in the response: " + line);
+        }
+        // the server closes the connection, drain the rest
+        byte[] skip = new byte[BUFFER_SIZE];
+        while (buffered.read(skip) != -1) {
+            // ignore the headers and the body
+        }
+        return Integer.parseInt(status[1]);
+    }
+}
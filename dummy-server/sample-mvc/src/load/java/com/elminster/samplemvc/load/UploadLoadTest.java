@@ -0,0 +1,300 @@
+package com.elminster.samplemvc.load;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.elminster.poc.SpeedLimiter;
+import com.elminster.samplemvc.upload.UploadPolicy;
+import com.elminster.samplemvc.upload.UploadSpeedLimitProperties;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Fire concurrent multipart uploads at {@code /v1/upload} while probing {@code /v1/ping}, and report
+ * the throughput, the rate of each client against its limit, the container threads, the heap and the
+ * ping latency.
+ *
+ * Run with {@code mvn -P load test}, the load is configured by the {@code load.*} properties of the profile.
+ * It fails if a client is faster than its limit, an upload fails, or the ping p99 is above the maximum.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class UploadLoadTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadLoadTest.class);
+
+    private static final String UPLOAD_PATH = "/v1/upload";
+    private static final String PING_PATH = "/v1/ping";
+    private static final long SAMPLE_INTERVAL = 100; // ms
+
+    private final int clients = Integer.getInteger("load.clients", 4);
+    private final int uploadsPerClient = Integer.getInteger("load.uploads-per-client", 2);
+    private final long[] uploadSizes = parseSizes(System.getProperty("load.upload-sizes", "4194304"));
+    private final long pingInterval = Long.getLong("load.ping-interval", 50);
+    private final long maxPingP99 = Long.getLong("load.max-ping-p99", 500);
+    private final double rateTolerance = Double.parseDouble(System.getProperty("load.rate-tolerance", "0.1"));
+
+    private volatile boolean stop;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ServletWebServerApplicationContext context;
+
+    @Autowired
+    private UploadSpeedLimiters uploadSpeedLimiters;
+
+    @Autowired
+    private UploadSpeedLimitProperties properties;
+
+    @BeforeClass
+    public static void createStorage() throws IOException {
+        // the storage is relative to the working directory, i.e. target/load
+        Files.createDirectories(Paths.get("C:/Upload"));
+    }
+
+    @Test
+    public void testConcurrentUploads() throws Exception {
+        List<ClientLoad> loads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            loads.add(new ClientLoad(new LoopbackHttpClient(LoopbackHttpClient.loopbackAddress(i), port)));
+        }
+        if (loads.size() > 1 && loads.get(0).client.getLocalAddress().equals(loads.get(1).client.getLocalAddress())) {
+            logger.warn("only 127.0.0.1 can be bound, all the clients share one client limiter");
+        }
+
+        // the first request initializes the dispatcher, it is not part of the measurement
+        Assert.assertEquals(200, new LoopbackHttpClient(InetAddress.getByName("127.0.0.1"), port).get(PING_PATH));
+
+        ExecutorService uploaders = Executors.newFixedThreadPool(clients * uploadsPerClient);
+        ExecutorService probes = Executors.newFixedThreadPool(2);
+        List<Long> pingLatencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger failedPings = new AtomicInteger();
+        Sampler sampler = new Sampler();
+        AtomicInteger uploadIndex = new AtomicInteger();
+        List<Future<Integer>> uploads = new ArrayList<>();
+        stop = false;
+        long start = System.nanoTime();
+        probes.execute(() -> ping(pingLatencies, failedPings));
+        probes.execute(sampler);
+        for (ClientLoad load : loads) {
+            for (int i = 0; i < uploadsPerClient; i++) {
+                int index = uploadIndex.getAndIncrement();
+                long size = uploadSizes[index % uploadSizes.length];
+                uploads.add(uploaders.submit(() -> load.upload("load-" + index + ".bin", size)));
+            }
+        }
+        List<Integer> statuses = new ArrayList<>();
+        for (Future<Integer> upload : uploads) {
+            statuses.add(upload.get());
+        }
+        long elapsed = System.nanoTime() - start;
+        stop = true;
+        uploaders.shutdown();
+        probes.shutdown();
+        probes.awaitTermination(10, TimeUnit.SECONDS);
+
+        long totalBytes = 0;
+        for (ClientLoad load : loads) {
+            totalBytes += load.bytes.get();
+        }
+        List<Long> latencies = new ArrayList<>(pingLatencies);
+        Collections.sort(latencies);
+        long p50 = percentile(latencies, 0.5);
+        long p99 = percentile(latencies, 0.99);
+
+        StringBuilder report = new StringBuilder(1024)
+                .append(String.format("%n%d clients x %d uploads in %d ms, aggregate throughput %.1f KB/s%n",
+                        clients, uploadsPerClient, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                        totalBytes / 1024.0 / (elapsed / 1e9)))
+                .append(String.format("%-12s %12s %14s %14s %8s%n", "client", "bytes", "rate KB/s", "limit KB/s", "ratio"));
+        List<String> overLimit = new ArrayList<>();
+        for (ClientLoad load : loads) {
+            long limit = getLimit(load.client.getLocalAddress());
+            double rate = load.getRate();
+            double ratio = SpeedLimiter.UNLIMITED == limit ? 0 : rate / limit;
+            report.append(String.format("%-12s %12d %14.1f %14s %8.2f%n", load.client.getLocalAddress().getHostAddress(),
+                    load.bytes.get(), rate / 1024, SpeedLimiter.UNLIMITED == limit ? "unlimited" : limit / 1024,
+                    ratio));
+            if (ratio > 1 + rateTolerance) {
+                overLimit.add(load.client.getLocalAddress().getHostAddress());
+            }
+        }
+        report.append(String.format("container threads: busy max %s, pool max %s, JVM live threads max %d%n",
+                sampler.maxBusyThreads < 0 ? "n/a" : sampler.maxBusyThreads,
+                sampler.maxPoolThreads < 0 ? "n/a" : sampler.maxPoolThreads, sampler.maxLiveThreads))
+                .append(String.format("heap used: max %.1f MB, committed %.1f MB%n",
+                        sampler.maxHeapUsed / 1048576.0, sampler.maxHeapCommitted / 1048576.0))
+                .append(String.format("ping: %d probes, %d failed, p50 %.2f ms, p99 %.2f ms",
+                        latencies.size(), failedPings.get(), p50 / 1e6, p99 / 1e6));
+        logger.info("load report:{}", report);
+
+        for (int i = 0; i < statuses.size(); i++) {
+            Assert.assertEquals("upload " + i, 200, (int) statuses.get(i));
+        }
+        Assert.assertTrue("clients faster than their limit: " + overLimit, overLimit.isEmpty());
+        Assert.assertEquals("failed pings", 0, failedPings.get());
+        Assert.assertTrue("ping p99 " + p99 / 1000000 + " ms", p99 <= TimeUnit.MILLISECONDS.toNanos(maxPingP99));
+    }
+
+    private void ping(List<Long> latencies, AtomicInteger failures) {
+        LoopbackHttpClient client;
+        try {
+            client = new LoopbackHttpClient(InetAddress.getByName("127.0.0.1"), port);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        while (!stop) {
+            long start = System.nanoTime();
+            try {
+                if (200 == client.get(PING_PATH)) {
+                    latencies.add(System.nanoTime() - start);
+                } else {
+                    failures.incrementAndGet();
+                }
+                Thread.sleep(pingInterval);
+            } catch (IOException e) {
+                failures.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the rate a client on the address is limited to, by its own limiter, its uploads and the server
+     */
+    private long getLimit(InetAddress address) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", UPLOAD_PATH);
+        request.setServletPath(UPLOAD_PATH);
+        request.setRemoteAddr(address.getHostAddress());
+        UploadPolicy policy = uploadSpeedLimiters.resolvePolicy(request);
+        long limit = Long.MAX_VALUE;
+        if (SpeedLimiter.UNLIMITED != policy.getClientSpeedLimit()) {
+            limit = Math.min(limit, policy.getClientSpeedLimit());
+        }
+        if (SpeedLimiter.UNLIMITED != policy.getUploadSpeedLimit()) {
+            limit = Math.min(limit, policy.getUploadSpeedLimit() * uploadsPerClient);
+        }
+        if (SpeedLimiter.UNLIMITED != properties.getServerSpeedLimit()) {
+            // a client may use the whole server while the others are done
+            limit = Math.min(limit, properties.getServerSpeedLimit());
+        }
+        return Long.MAX_VALUE == limit ? SpeedLimiter.UNLIMITED : limit;
+    }
+
+    private static long percentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return sorted.get((int) Math.min(sorted.size() - 1, Math.ceil(percentile * sorted.size()) - 1));
+    }
+
+    private static long[] parseSizes(String sizes) {
+        String[] values = sizes.split(",");
+        long[] parsed = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            parsed[i] = Long.parseLong(values[i].trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * The uploads of one client, timed from the first start to the last end.
+     */
+    private static class ClientLoad {
+        private final LoopbackHttpClient client;
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong lastEnd = new AtomicLong(Long.MIN_VALUE);
+
+        ClientLoad(LoopbackHttpClient client) {
+            this.client = client;
+        }
+
+        int upload(String fileName, long size) throws IOException {
+            firstStart.accumulateAndGet(System.nanoTime(), Math::min);
+            int status = client.postFile(UPLOAD_PATH, fileName, size);
+            lastEnd.accumulateAndGet(System.nanoTime(), Math::max);
+            if (200 == status) {
+                bytes.addAndGet(size);
+            }
+            return status;
+        }
+
+        /**
+         * @return the achieved rate in bytes per second
+         */
+        double getRate() {
+            long elapsed = lastEnd.get() - firstStart.get();
+            return elapsed <= 0 ? 0 : bytes.get() / (elapsed / 1e9);
+        }
+    }
+
+    /**
+     * Sample the container threads and the heap until the load is done.
+     */
+    private class Sampler implements Runnable {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private volatile int maxBusyThreads = -1;
+        private volatile int maxPoolThreads = -1;
+        private volatile int maxLiveThreads;
+        private volatile long maxHeapUsed;
+        private volatile long maxHeapCommitted;
+
+        @Override
+        public void run() {
+            // a pool of the container, not the virtual threads executor, which has no busy count
+            Executor executor = ((TomcatWebServer) context.getWebServer()).getTomcat().getConnector()
+                    .getProtocolHandler().getExecutor();
+            ThreadPoolExecutor pool = executor instanceof ThreadPoolExecutor ? (ThreadPoolExecutor) executor : null;
+            while (!stop) {
+                if (null != pool) {
+                    maxBusyThreads = Math.max(maxBusyThreads, pool.getActiveCount());
+                    maxPoolThreads = Math.max(maxPoolThreads, pool.getPoolSize());
+                }
+                maxLiveThreads = Math.max(maxLiveThreads, threads.getThreadCount());
+                maxHeapUsed = Math.max(maxHeapUsed, memory.getHeapMemoryUsage().getUsed());
+                maxHeapCommitted = Math.max(maxHeapCommitted, memory.getHeapMemoryUsage().getCommitted());
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
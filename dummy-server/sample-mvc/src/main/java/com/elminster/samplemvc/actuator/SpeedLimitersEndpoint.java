@@ -0,0 +1,78 @@
+package com.elminster.samplemvc.actuator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.elminster.poc.SpeedLimiter;
+import com.elminster.samplemvc.upload.UploadPolicy;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+/**
+ * Show and change the upload speed limits of this node at runtime, e.g. during an incident.
+ * POST a JSON body with the "speedLimit", -1 to lift it, and a "limiter" name, a "client" key,
+ * or neither for every upload.
+ */
+@Endpoint(id = "speedlimiters")
+public class SpeedLimitersEndpoint {
+
+    private final UploadSpeedLimiters speedLimiters;
+
+    public SpeedLimitersEndpoint(UploadSpeedLimiters speedLimiters) {
+        this.speedLimiters = speedLimiters;
+    }
+
+    @ReadOperation
+    public Map<String, Object> speedLimiters() {
+        Map<String, Object> limiters = new LinkedHashMap<>();
+        for (Map.Entry<String, SpeedLimiter> entry : speedLimiters.getLimiters().entrySet()) {
+            SpeedLimiter limiter = entry.getValue();
+            Map<String, Object> descriptor = new LinkedHashMap<>();
+            descriptor.put("speedLimit", limiter.getMaxSpeedInBytesPerSec());
+            descriptor.put("effectiveSpeed", limiter.getEffectiveSpeedInBytesPerSec());
+            descriptor.put("activeChildren", limiter.getActiveChildCount());
+            limiters.put(entry.getKey(), descriptor);
+        }
+        Map<String, Object> policies = new LinkedHashMap<>();
+        for (UploadPolicy policy : speedLimiters.getPolicies()) {
+            Map<String, Object> descriptor = new LinkedHashMap<>();
+            descriptor.put("clientSpeedLimit", policy.getClientSpeedLimit());
+            descriptor.put("uploadSpeedLimit", policy.getUploadSpeedLimit());
+            descriptor.put("priority", policy.getPriority());
+            descriptor.put("weight", policy.getWeight());
+            policies.put(policy.getName(), descriptor);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("policies", policies);
+        result.put("limiters", limiters);
+        return result;
+    }
+
+    @WriteOperation
+    public Map<String, Object> setSpeedLimit(@Nullable String limiter, @Nullable String client, long speedLimit) {
+        if (null != limiter && null != client) {
+            throw new InvalidEndpointRequestException("Either limiter or client can be set, not both",
+                    "limiter and client are exclusive");
+        }
+        int changed;
+        try {
+            if (null != limiter) {
+                changed = speedLimiters.setSpeedLimit(limiter, speedLimit);
+            } else if (null != client) {
+                changed = speedLimiters.setClientUploadSpeedLimit(client, speedLimit);
+            } else {
+                changed = speedLimiters.setUploadSpeedLimit(speedLimit);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), "invalid speed limit " + speedLimit);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("changed", changed);
+        return result;
+    }
+}
@@ -0,0 +1,22 @@
+package com.elminster.samplemvc.configuration;
+
+import com.elminster.samplemvc.service.FileStorageService;
+import com.elminster.samplemvc.servlet.AsyncUploadServlet;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class AsyncUploadConfiguration {
+
+    @Bean
+    public ServletRegistrationBean<AsyncUploadServlet> asyncUploadServletRegistrationBean(
+            FileStorageService fileStorageService, UploadSpeedLimiters uploadSpeedLimiters) {
+        final ServletRegistrationBean<AsyncUploadServlet> registrationBean = new ServletRegistrationBean<>(
+                new AsyncUploadServlet(fileStorageService, uploadSpeedLimiters), AsyncUploadServlet.PATH);
+        registrationBean.setAsyncSupported(true);
+        return registrationBean;
+    }
+}
@@ -0,0 +1,25 @@
+package com.elminster.samplemvc.configuration;
+
+import com.elminster.samplemvc.download.DownloadSpeedLimiters;
+import com.elminster.samplemvc.upload.UploadSpeedLimiterMetrics;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class DownloadConfiguration {
+
+    @Bean
+    public DownloadSpeedLimiters downloadSpeedLimiters() {
+        return new DownloadSpeedLimiters();
+    }
+
+    @Bean
+    public MeterBinder downloadSpeedLimiterMetrics(DownloadSpeedLimiters downloadSpeedLimiters) {
+        return registry -> UploadSpeedLimiterMetrics.bindLimiter(registry, downloadSpeedLimiters.getServerLimiter(),
+                Tags.of("pool", "download"));
+    }
+}
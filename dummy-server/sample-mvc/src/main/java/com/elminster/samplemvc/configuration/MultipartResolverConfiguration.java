@@ -1,7 +1,19 @@
 package com.elminster.samplemvc.configuration;
 
+import javax.servlet.http.HttpServletRequest;
+
+import com.elminster.poc.InMemoryQuotaStore;
+import com.elminster.poc.QuotaStore;
+import com.elminster.samplemvc.controller.TestController;
 import com.elminster.samplemvc.resolver.SpeedLimitedMultipartResolver;
+import com.elminster.samplemvc.servlet.AsyncUploadServlet;
+import com.elminster.samplemvc.upload.UploadSpeedLimitProperties;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -9,18 +21,44 @@ import org.springframework.web.multipart.commons.CommonsMultipartResolver;
 import org.springframework.web.multipart.support.MultipartFilter;
 
 @Configuration
+@EnableConfigurationProperties(UploadSpeedLimitProperties.class)
 public class MultipartResolverConfiguration {
 
     @Bean
-    public CommonsMultipartResolver commonsMultipartResolver() {
-        final CommonsMultipartResolver commonsMultipartResolver = new SpeedLimitedMultipartResolver();
+    public UploadSpeedLimiters uploadSpeedLimiters(UploadSpeedLimitProperties uploadSpeedLimitProperties,
+            ObjectProvider<QuotaStore> quotaStore) {
+        QuotaStore store = uploadSpeedLimitProperties.getCluster().isEnabled() ? quotaStore.getIfAvailable() : null;
+        return new UploadSpeedLimiters(uploadSpeedLimitProperties, store);
+    }
+
+    /**
+     * The stand-in store of the cluster quotas, a real cluster declares a QuotaStore bean backed by a shared store.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty("sample.upload.cluster.enabled")
+    public QuotaStore quotaStore(UploadSpeedLimitProperties uploadSpeedLimitProperties) {
+        return new InMemoryQuotaStore(uploadSpeedLimitProperties.getCluster().getClientQuota());
+    }
+
+    @Bean
+    public CommonsMultipartResolver commonsMultipartResolver(UploadSpeedLimiters uploadSpeedLimiters) {
+        final SpeedLimitedMultipartResolver commonsMultipartResolver = new SpeedLimitedMultipartResolver(uploadSpeedLimiters);
         commonsMultipartResolver.setMaxUploadSize(-1);
+        // neither the multipart filter nor the dispatcher may parse the streamed uploads first
+        commonsMultipartResolver.setStreamingPaths(TestController.STREAM_UPLOAD_PATH);
         return commonsMultipartResolver;
     }
 
     @Bean
     public FilterRegistrationBean<?> multipartFilterRegistrationBean() {
-        final MultipartFilter multipartFilter = new MultipartFilter();
+        final MultipartFilter multipartFilter = new MultipartFilter() {
+            @Override
+            protected boolean shouldNotFilter(HttpServletRequest request) {
+                // the async upload servlet receives the multipart body itself, without blocking
+                return AsyncUploadServlet.PATH.equals(request.getServletPath());
+            }
+        };
         final FilterRegistrationBean<?> filterRegistrationBean = new FilterRegistrationBean<>(multipartFilter);
         filterRegistrationBean.addInitParameter("multipartResolverBeanName", "commonsMultipartResolver");
         return filterRegistrationBean;
@@ -0,0 +1,29 @@
+package com.elminster.samplemvc.configuration;
+
+import com.elminster.samplemvc.download.DownloadSpeedLimiters;
+import com.elminster.samplemvc.servlet.SpeedLimitedBodyFilter;
+import com.elminster.samplemvc.servlet.SpeedLimitedBodyProperties;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+@Configuration
+@EnableConfigurationProperties(SpeedLimitedBodyProperties.class)
+public class SpeedLimitedBodyConfiguration {
+
+    @Bean
+    public FilterRegistrationBean<SpeedLimitedBodyFilter> speedLimitedBodyFilterRegistrationBean(
+            UploadSpeedLimiters uploadSpeedLimiters, DownloadSpeedLimiters downloadSpeedLimiters,
+            SpeedLimitedBodyProperties speedLimitedBodyProperties) {
+        final FilterRegistrationBean<SpeedLimitedBodyFilter> filterRegistrationBean = new FilterRegistrationBean<>(
+                new SpeedLimitedBodyFilter(uploadSpeedLimiters, downloadSpeedLimiters, speedLimitedBodyProperties));
+        // after the security filters, which know the user, before the multipart filter, which reads the body
+        filterRegistrationBean.setOrder(Ordered.LOWEST_PRECEDENCE - 1);
+        filterRegistrationBean.setAsyncSupported(true);
+        return filterRegistrationBean;
+    }
+}
@@ -0,0 +1,16 @@
+package com.elminster.samplemvc.configuration;
+
+import com.elminster.samplemvc.upload.UploadSpeedLimiterMetrics;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class SpeedLimiterMetricsConfiguration {
+
+    @Bean
+    public UploadSpeedLimiterMetrics uploadSpeedLimiterMetrics(UploadSpeedLimiters uploadSpeedLimiters) {
+        return new UploadSpeedLimiterMetrics(uploadSpeedLimiters);
+    }
+}
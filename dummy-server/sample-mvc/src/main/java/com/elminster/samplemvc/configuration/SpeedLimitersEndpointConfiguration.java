@@ -0,0 +1,16 @@
+package com.elminster.samplemvc.configuration;
+
+import com.elminster.samplemvc.actuator.SpeedLimitersEndpoint;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class SpeedLimitersEndpointConfiguration {
+
+    @Bean
+    public SpeedLimitersEndpoint speedLimitersEndpoint(UploadSpeedLimiters uploadSpeedLimiters) {
+        return new SpeedLimitersEndpoint(uploadSpeedLimiters);
+    }
+}
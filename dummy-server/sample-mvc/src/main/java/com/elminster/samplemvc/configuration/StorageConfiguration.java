@@ -0,0 +1,21 @@
+package com.elminster.samplemvc.configuration;
+
+import com.elminster.samplemvc.service.FileStorageService;
+import com.elminster.samplemvc.service.StoragePipeline;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class StorageConfiguration {
+
+    /**
+     * @param threads the threads writing the chunks of /v1/stream-upload ({@code sample.storage.threads})
+     */
+    @Bean(destroyMethod = "close")
+    public StoragePipeline storagePipeline(FileStorageService fileStorageService,
+            @Value("${sample.storage.threads:" + StoragePipeline.THREADS + "}") int threads) {
+        return new StoragePipeline(fileStorageService, threads);
+    }
+}
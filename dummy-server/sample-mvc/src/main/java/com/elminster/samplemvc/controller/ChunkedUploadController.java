@@ -0,0 +1,122 @@
+package com.elminster.samplemvc.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.elminster.samplemvc.service.ChunkedUploadService;
+import com.elminster.samplemvc.upload.ChunkedUpload;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Resumable uploads in numbered chunks, which may be sent over parallel connections:
+ * <ul>
+ * <li>POST /v1/chunked-uploads?name=&amp;size=&amp;chunkSize= starts an upload, and returns its id and chunk count</li>
+ * <li>PUT /v1/chunked-uploads/{id}/chunks/{index} with the chunk as the body, in any order</li>
+ * <li>GET /v1/chunked-uploads/{id} returns the missing chunks, to resume after a failure</li>
+ * <li>POST /v1/chunked-uploads/{id}/complete stores the file once every chunk is received</li>
+ * <li>DELETE /v1/chunked-uploads/{id} drops the upload</li>
+ * </ul>
+ */
+@Controller
+@RequestMapping("/v1/chunked-uploads")
+public class ChunkedUploadController {
+
+    public static final int CHUNK_SIZE = 4 * 1024 * 1024; // 4MB
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @PostMapping
+    public ResponseEntity<?> create(@RequestParam("name") String name, @RequestParam("size") long size,
+            @RequestParam(name = "chunkSize", defaultValue = "" + CHUNK_SIZE) int chunkSize,
+            HttpServletRequest request) {
+        try {
+            ChunkedUpload upload = chunkedUploadService.create(name, size, chunkSize, request);
+            return new ResponseEntity<>(describe(upload), HttpStatus.CREATED);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<?> status(@PathVariable("id") String id) {
+        ChunkedUpload upload = chunkedUploadService.get(id);
+        if (null == upload) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(describe(upload), HttpStatus.OK);
+    }
+
+    @PutMapping("/{id}/chunks/{index}")
+    public ResponseEntity<?> chunk(@PathVariable("id") String id, @PathVariable("index") int index,
+            HttpServletRequest request) {
+        ChunkedUpload upload = chunkedUploadService.get(id);
+        if (null == upload) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        try (InputStream in = request.getInputStream()) {
+            chunkedUploadService.storeChunk(upload, index, in);
+            return new ResponseEntity<String>("received", HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IOException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @PostMapping("/{id}/complete")
+    public ResponseEntity<?> complete(@PathVariable("id") String id) {
+        ChunkedUpload upload = chunkedUploadService.get(id);
+        if (null == upload) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        try {
+            chunkedUploadService.complete(upload);
+            return new ResponseEntity<String>("received", HttpStatus.OK);
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT);
+        } catch (IOException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> abort(@PathVariable("id") String id) {
+        ChunkedUpload upload = chunkedUploadService.get(id);
+        if (null == upload) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        try {
+            chunkedUploadService.abort(upload);
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        } catch (IOException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static Map<String, Object> describe(ChunkedUpload upload) {
+        Map<String, Object> descriptor = new LinkedHashMap<>();
+        descriptor.put("id", upload.getId());
+        descriptor.put("name", upload.getName());
+        descriptor.put("size", upload.getSize());
+        descriptor.put("chunkSize", upload.getChunkSize());
+        descriptor.put("chunkCount", upload.getChunkCount());
+        descriptor.put("missingChunks", upload.getMissingChunks());
+        return descriptor;
+    }
+}
@@ -0,0 +1,130 @@
+package com.elminster.samplemvc.controller;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.elminster.poc.SpeedLimitedChannels;
+import com.elminster.poc.SpeedLimiter;
+import com.elminster.samplemvc.download.DownloadSpeedLimiters;
+import com.elminster.samplemvc.service.FileStorageService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+/**
+ * Throttled downloads of the stored files, sent from their {@link FileChannel} in slices of one limiter burst.
+ * A single byte range is served as 206, several ranges get the whole file.
+ */
+@Controller
+@RequestMapping("/v1")
+public class DownloadController {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private DownloadSpeedLimiters downloadSpeedLimiters;
+
+    @GetMapping("/download/{name:.+}")
+    public void download(@PathVariable("name") String name, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        Path path;
+        try {
+            path = fileStorageService.load(name);
+        } catch (NoSuchFileException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = file.size();
+            long lastModified = path.toFile().lastModified();
+            String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            response.setHeader(HttpHeaders.ETAG, etag);
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+
+            long start = 0;
+            long end = length - 1;
+            HttpRange range;
+            try {
+                range = getRange(request, etag, lastModified);
+                if (null != range) {
+                    start = range.getRangeStart(length);
+                    end = range.getRangeEnd(length);
+                    if (start >= length || start > end) {
+                        throw new IllegalArgumentException("range beyond the end of the file");
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                // malformed, or beyond the end of the file
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (null != range) {
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+            long count = end - start + 1;
+            response.setContentLengthLong(count);
+
+            // a child of the shared client limiter, closed once sent so the client leaves the server limiter
+            SpeedLimiter limiter = downloadSpeedLimiters.newDownloadLimiter(request);
+            try {
+                WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+                long sent = 0;
+                while (sent < count) {
+                    long n = SpeedLimitedChannels.transferTo(file, start + sent, count - sent, out, limiter);
+                    if (n <= 0) {
+                        break;
+                    }
+                    sent += n;
+                }
+            } finally {
+                limiter.close();
+            }
+        }
+    }
+
+    /**
+     * @return the requested range, null for the whole file
+     * @throws IllegalArgumentException if the range header is malformed
+     */
+    private HttpRange getRange(HttpServletRequest request, String etag, long lastModified) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (null == rangeHeader) {
+            return null;
+        }
+        // a resumed download must not mix two versions of the file
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (null != ifRange && !ifRange.equals(etag)) {
+            long ifRangeDate;
+            try {
+                ifRangeDate = request.getDateHeader(HttpHeaders.IF_RANGE);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            if (lastModified / 1000 != ifRangeDate / 1000) {
+                return null;
+            }
+        }
+        List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+        return 1 == ranges.size() ? ranges.get(0) : null;
+    }
+}
@@ -1,15 +1,31 @@
 package com.elminster.samplemvc.controller;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+
+import javax.servlet.http.HttpServletRequest;
 
 import com.elminster.samplemvc.service.FileStorageService;
+import com.elminster.samplemvc.service.StoragePipeline;
+import com.elminster.samplemvc.upload.SpeedLimitedFileUpload;
+import com.elminster.samplemvc.upload.SpeedLimitedPart;
+import com.elminster.samplemvc.upload.SpeedLimitedPartIterator;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.servlet.ServletRequestContext;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
@@ -18,8 +34,19 @@ import org.springframework.web.multipart.MultipartFile;
 @RequestMapping("/v1")
 public class TestController {
 
+    /**
+     * the parts are streamed to the storage, so the multipart filter must not parse the request first.
+     */
+    public static final String STREAM_UPLOAD_PATH = "/v1/stream-upload";
+
     @Autowired
     private FileStorageService fileStorageService;
+
+    @Autowired
+    private UploadSpeedLimiters uploadSpeedLimiters;
+
+    @Autowired
+    private StoragePipeline storagePipeline;
     
     @GetMapping("/ping")
     public ResponseEntity<?> ping() {
@@ -35,4 +62,81 @@ public class TestController {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
 		}
     }
-}
\ No newline at end of file
+
+    /**
+     * The body is the file, throttled by the body filter, see {@code sample.throttle.request-paths}.
+     */
+    @PutMapping("/raw-upload/{name:.+}")
+    public ResponseEntity<?> rawUpload(@PathVariable("name") String name, HttpServletRequest request) {
+        if (!isValidName(name)) {
+            return new ResponseEntity<>("invalid name", HttpStatus.BAD_REQUEST);
+        }
+        try (InputStream in = request.getInputStream()) {
+            fileStorageService.store(name, in);
+            return new ResponseEntity<String>("received", HttpStatus.OK);
+        } catch (IOException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * The parts are read under the upload limits, and written by the storage threads meanwhile.
+     * Each file is stored under its file name, see {@link #getStoredName(SpeedLimitedPart)};
+     * of several files of the same name, the last one is kept.
+     */
+    @PostMapping("/stream-upload")
+    public ResponseEntity<?> streamUpload(HttpServletRequest request) {
+        if (!ServletFileUpload.isMultipartContent(request)) {
+            return new ResponseEntity<>("multipart request expected", HttpStatus.BAD_REQUEST);
+        }
+        // the parts not completed are dropped on close
+        try (StoragePipeline.Batch batch = storagePipeline.newBatch();
+                SpeedLimitedPartIterator parts = new SpeedLimitedFileUpload().getPartIterator(
+                        new ServletRequestContext(request), uploadSpeedLimiters, request)) {
+            while (parts.hasNext()) {
+                SpeedLimitedPart part = parts.next();
+                if (!part.isFormField()) {
+                    String name = getStoredName(part);
+                    if (!isValidName(name)) {
+                        return new ResponseEntity<>("invalid name", HttpStatus.BAD_REQUEST);
+                    }
+                    try (InputStream in = part.openStream()) {
+                        batch.store(name, in);
+                    }
+                }
+            }
+            batch.complete();
+            return new ResponseEntity<String>("received", HttpStatus.OK);
+        } catch (FileUploadException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IOException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * @return the file name given by the client without its directories, which some browsers send,
+     * or the field name if the client gave none
+     */
+    private static String getStoredName(SpeedLimitedPart part) {
+        String fileName = part.getFileName();
+        if (null == fileName || fileName.isEmpty()) {
+            return part.getFieldName();
+        }
+        return fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1);
+    }
+
+    /**
+     * @return true if the name is a plain file name, which does not lead out of the storage
+     */
+    private static boolean isValidName(String name) {
+        if (null == name || name.isEmpty() || ".".equals(name) || "..".equals(name)) {
+            return false;
+        }
+        try {
+            return name.equals(Paths.get(name).getFileName().toString());
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+}
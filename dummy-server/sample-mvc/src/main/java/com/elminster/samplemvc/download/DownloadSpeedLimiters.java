@@ -0,0 +1,71 @@
+package com.elminster.samplemvc.download;
+
+import java.security.Principal;
+import java.util.concurrent.ExecutionException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.elminster.poc.SpeedLimiter;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The download speed limiter tree: one server-wide limiter, and one weakly cached limiter per client
+ * (the authenticated user, otherwise the remote IP), shared by all the requests of the client.
+ */
+public class DownloadSpeedLimiters {
+
+    public static final long SERVER_SPEED_LIMIT = 100 * 1024 * 1024; // 100MB
+    public static final long CLIENT_SPEED_LIMIT = 2 * 1024 * 1024; // 2MB
+
+    private final SpeedLimiter serverLimiter;
+    private final long clientSpeedLimit;
+    private final Cache<String, SpeedLimiter> clientLimiters = CacheBuilder.newBuilder().weakValues().build();
+
+    public DownloadSpeedLimiters() {
+        this(SERVER_SPEED_LIMIT, CLIENT_SPEED_LIMIT);
+    }
+
+    public DownloadSpeedLimiters(long serverSpeedLimit, long clientSpeedLimit) {
+        this.serverLimiter = UploadSpeedLimiters.pace(new SpeedLimiter(serverSpeedLimit, SpeedLimiter.Mode.LAZY));
+        this.clientSpeedLimit = clientSpeedLimit;
+    }
+
+    public SpeedLimiter getServerLimiter() {
+        return serverLimiter;
+    }
+
+    /**
+     * Get the limiter shared by all downloads of the client sending the request.
+     * The limiter is shared, it must not be closed by the download.
+     * @param request the request
+     * @return the client limiter
+     */
+    public SpeedLimiter getClientLimiter(HttpServletRequest request) {
+        String client = getClientKey(request);
+        try {
+            return clientLimiters.get(client,
+                    () -> UploadSpeedLimiters.pace(new SpeedLimiter(clientSpeedLimit, serverLimiter)));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Create the limiter of one response body below the client limiter, it has no limit of its own.
+     * @param request the request
+     * @return the paced limiter, to be closed once the response is sent
+     */
+    public SpeedLimiter newDownloadLimiter(HttpServletRequest request) {
+        return UploadSpeedLimiters.pace(new SpeedLimiter(SpeedLimiter.UNLIMITED, getClientLimiter(request)));
+    }
+
+    protected String getClientKey(HttpServletRequest request) {
+        Principal principal = request.getUserPrincipal();
+        if (null != principal) {
+            return "user:" + principal.getName();
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+}
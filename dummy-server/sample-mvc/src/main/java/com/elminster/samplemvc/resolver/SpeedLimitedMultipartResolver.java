@@ -1,23 +1,53 @@
 package com.elminster.samplemvc.resolver;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 
 import com.elminster.samplemvc.upload.SpeedLimitedFileUpload;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
 
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileItemFactory;
 import org.apache.commons.fileupload.FileUpload;
 import org.apache.commons.fileupload.FileUploadBase;
 import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletRequestContext;
 import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.multipart.MultipartException;
 import org.springframework.web.multipart.commons.CommonsMultipartResolver;
 
 
 public class SpeedLimitedMultipartResolver extends CommonsMultipartResolver {
- 
+
+    private final UploadSpeedLimiters speedLimiters;
+    private final Set<String> streamingPaths = new HashSet<>();
+
+    public SpeedLimitedMultipartResolver() {
+        this(new UploadSpeedLimiters());
+    }
+
+    public SpeedLimitedMultipartResolver(UploadSpeedLimiters speedLimiters) {
+        super();
+        this.speedLimiters = speedLimiters;
+    }
+
+    /**
+     * The requests to these paths are left to the handler, which streams the parts itself.
+     * @param paths the servlet paths
+     */
+    public void setStreamingPaths(String... paths) {
+        streamingPaths.addAll(Arrays.asList(paths));
+    }
+
+    @Override
+    public boolean isMultipart(HttpServletRequest request) {
+        return !streamingPaths.contains(request.getServletPath()) && super.isMultipart(request);
+    }
+
     @Override
 	protected FileUpload newFileUpload(FileItemFactory fileItemFactory) {
 		return new SpeedLimitedFileUpload(fileItemFactory);
@@ -27,7 +57,8 @@ public class SpeedLimitedMultipartResolver extends CommonsMultipartResolver {
 		String encoding = determineEncoding(request);
 		FileUpload fileUpload = prepareFileUpload(encoding);
 		try {
-			List<FileItem> fileItems = ((SpeedLimitedFileUpload) fileUpload).parseRequest(request);
+			List<FileItem> fileItems = ((SpeedLimitedFileUpload) fileUpload).parseRequest(
+					new ServletRequestContext(request), speedLimiters, request);
 			return parseFileItems(fileItems, encoding);
 		} catch (FileUploadBase.SizeLimitExceededException ex) {
 			throw new MaxUploadSizeExceededException(fileUpload.getSizeMax(), ex);
@@ -0,0 +1,56 @@
+package com.elminster.samplemvc.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.elminster.samplemvc.upload.ChunkedUpload;
+
+/**
+ * Resumable uploads sent in numbered chunks over parallel connections, see {@link ChunkedUpload}.
+ */
+public interface ChunkedUploadService {
+
+    /**
+     * Start an upload, its limits are picked from the request as for any upload.
+     * @param name the name to store the file as
+     * @param size the size of the file in bytes
+     * @param chunkSize the size of the chunks in bytes
+     * @param request the request starting the upload
+     * @return the upload
+     * @throws IllegalArgumentException if the name, the size or the chunk size is invalid
+     */
+    public ChunkedUpload create(String name, long size, int chunkSize, HttpServletRequest request);
+
+    /**
+     * @param id the id of the upload
+     * @return the upload, null if unknown, completed, aborted or expired
+     */
+    public ChunkedUpload get(String id);
+
+    /**
+     * Store one chunk at its offset, throttled by the limiter of the upload.
+     * @param upload the upload
+     * @param index the index of the chunk
+     * @param content the chunk, read to its end
+     * @throws IllegalArgumentException if there is no such chunk, or the content is not the size of the chunk
+     * @throws IOException on I/O error
+     */
+    public void storeChunk(ChunkedUpload upload, int index, InputStream content) throws IOException;
+
+    /**
+     * Store the file once every chunk is received, and end the upload.
+     * @param upload the upload
+     * @throws IllegalStateException if chunks are missing
+     * @throws IOException on I/O error
+     */
+    public void complete(ChunkedUpload upload) throws IOException;
+
+    /**
+     * Drop the chunks received, and end the upload.
+     * @param upload the upload
+     * @throws IOException on I/O error
+     */
+    public void abort(ChunkedUpload upload) throws IOException;
+}
@@ -0,0 +1,139 @@
+package com.elminster.samplemvc.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.elminster.poc.SpeedLimitedInputStream;
+import com.elminster.poc.SpeedLimiter;
+import com.elminster.samplemvc.upload.ChunkedUpload;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the running chunked uploads of this node, an upload left idle for an hour is dropped.
+ * The parallel chunks of an upload share the limiter of the upload.
+ */
+@Service
+public class ChunkedUploadServiceImpl implements ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadServiceImpl.class);
+
+    public static final int MIN_CHUNK_SIZE = 64 * 1024; // 64KB
+    public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024; // 64MB
+    public static final int MAX_CHUNK_COUNT = 1024 * 1024;
+    public static final int MAX_UPLOADS = 10000;
+    public static final Duration EXPIRY = Duration.ofHours(1);
+
+    private final FileStorageService fileStorageService;
+    private final UploadSpeedLimiters uploadSpeedLimiters;
+    private final Cache<String, ChunkedUpload> uploads;
+
+    public ChunkedUploadServiceImpl(FileStorageService fileStorageService, UploadSpeedLimiters uploadSpeedLimiters) {
+        this.fileStorageService = fileStorageService;
+        this.uploadSpeedLimiters = uploadSpeedLimiters;
+        this.uploads = CacheBuilder.newBuilder()
+                .maximumSize(MAX_UPLOADS)
+                .expireAfterAccess(EXPIRY.toNanos(), TimeUnit.NANOSECONDS)
+                .removalListener((RemovalListener<String, ChunkedUpload>) notification -> {
+                    if (notification.wasEvicted()) {
+                        try {
+                            discard(notification.getValue());
+                        } catch (IOException e) {
+                            logger.warn(e.getMessage(), e);
+                        }
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public ChunkedUpload create(String name, long size, int chunkSize, HttpServletRequest request) {
+        // the name must not lead out of the storage
+        if (null == name || ".".equals(name) || "..".equals(name)
+                || !name.equals(Paths.get(name).getFileName().toString())) {
+            throw new IllegalArgumentException("invalid name: " + name);
+        }
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("chunk size out of [" + MIN_CHUNK_SIZE + ", " + MAX_CHUNK_SIZE + "]");
+        }
+        if (size <= 0 || (size + chunkSize - 1) / chunkSize > MAX_CHUNK_COUNT) {
+            throw new IllegalArgumentException("size out of (0, " + (long) MAX_CHUNK_COUNT * chunkSize + "]");
+        }
+        ChunkedUpload upload = new ChunkedUpload(UUID.randomUUID().toString(), name, size, chunkSize,
+                uploadSpeedLimiters.newUploadLimiter(request));
+        uploads.put(upload.getId(), upload);
+        return upload;
+    }
+
+    @Override
+    public ChunkedUpload get(String id) {
+        return null == id ? null : uploads.getIfPresent(id);
+    }
+
+    @Override
+    public void storeChunk(ChunkedUpload upload, int index, InputStream content) throws IOException {
+        long offset = upload.getChunkOffset(index);
+        int length = upload.getChunkLength(index);
+        SpeedLimiter chunkLimiter = UploadSpeedLimiters.pace(
+                new SpeedLimiter(SpeedLimiter.UNLIMITED, upload.getSpeedLimiter()));
+        // the extra bytes would overwrite the next chunk; the content is left open to check for them
+        BoundedInputStream bounded = new BoundedInputStream(content, length);
+        bounded.setPropagateClose(false);
+        // a chunk sent again overwrites the stored one, which is not whole until the write ends
+        upload.markMissing(index);
+        long stored;
+        // closes the chunk limiter only
+        try (InputStream in = new SpeedLimitedInputStream(bounded, chunkLimiter)) {
+            stored = fileStorageService.storeChunk(upload.getId(), offset, in);
+        }
+        if (stored != length || -1 != content.read()) {
+            throw new IllegalArgumentException("chunk " + index + " must have " + length + " bytes");
+        }
+        upload.markReceived(index);
+    }
+
+    @Override
+    public void complete(ChunkedUpload upload) throws IOException {
+        if (!upload.isComplete()) {
+            throw new IllegalStateException("missing chunks " + upload.getMissingChunks());
+        }
+        if (!uploads.asMap().remove(upload.getId(), upload)) {
+            throw new IllegalStateException("upload " + upload.getId() + " already ended");
+        }
+        try {
+            fileStorageService.completeChunks(upload.getId(), upload.getName());
+        } catch (IOException e) {
+            // the client may try again
+            uploads.put(upload.getId(), upload);
+            throw e;
+        }
+        upload.getSpeedLimiter().close();
+    }
+
+    @Override
+    public void abort(ChunkedUpload upload) throws IOException {
+        uploads.asMap().remove(upload.getId(), upload);
+        discard(upload);
+    }
+
+    private void discard(ChunkedUpload upload) throws IOException {
+        try {
+            upload.getSpeedLimiter().close();
+        } finally {
+            fileStorageService.abortChunks(upload.getId());
+        }
+    }
+}
@@ -1,10 +1,67 @@
 package com.elminster.samplemvc.service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 
 import org.springframework.web.multipart.MultipartFile;
 
 public interface FileStorageService {
 
     public void store(MultipartFile file) throws IOException;
-}
\ No newline at end of file
+
+    /**
+     * Write the content once, straight to the storage.
+     * @param name the name to store the content as
+     * @param content the content, read to its end
+     * @return the bytes stored
+     * @throws IOException on I/O error
+     */
+    public long store(String name, InputStream content) throws IOException;
+
+    /**
+     * Write one chunk of an upload at its offset in the file, straight to the storage.
+     * The chunks of an upload may be written in any order, and in parallel.
+     * @param upload the id of the upload, the chunks are gathered apart from the stored files until completed
+     * @param position the offset of the chunk in the file
+     * @param content the chunk, read to its end
+     * @return the bytes stored
+     * @throws IOException on I/O error
+     */
+    public long storeChunk(String upload, long position, InputStream content) throws IOException;
+
+    /**
+     * Write one chunk of an upload held in memory, see {@link #storeChunk(String, long, InputStream)}.
+     * @param upload the id of the upload
+     * @param position the offset of the chunk in the file
+     * @param content the chunk, written from its position to its limit
+     * @return the bytes stored
+     * @throws IOException on I/O error
+     */
+    public long storeChunk(String upload, long position, ByteBuffer content) throws IOException;
+
+    /**
+     * Store the gathered chunks of an upload as the file, replacing the file of that name.
+     * @param upload the id of the upload
+     * @param name the name to store the file as
+     * @throws IOException on I/O error
+     */
+    public void completeChunks(String upload, String name) throws IOException;
+
+    /**
+     * Drop the gathered chunks of an upload.
+     * @param upload the id of the upload
+     * @throws IOException on I/O error
+     */
+    public void abortChunks(String upload) throws IOException;
+
+    /**
+     * Find a stored file.
+     * @param name the name the file was stored as
+     * @return the path of the file
+     * @throws java.nio.file.NoSuchFileException if there is no such file
+     * @throws IOException on I/O error
+     */
+    public Path load(String name) throws IOException;
+}
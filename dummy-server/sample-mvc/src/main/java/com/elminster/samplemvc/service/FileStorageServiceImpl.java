@@ -1,25 +1,131 @@
 package com.elminster.samplemvc.service;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
 
+import com.elminster.poc.AdaptiveSpeedController;
+import com.elminster.poc.BufferPool;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.util.FileCopyUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 @Service
 public class FileStorageServiceImpl implements FileStorageService {
 
     private static final String FILE_OUTPUT_DIR = "C:/Upload/";
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    @Autowired
+    private UploadSpeedLimiters uploadSpeedLimiters;
 
     @Override
     public void store(MultipartFile file) throws IOException {
         String fileName = file.getName();
-        try (InputStream in = file.getInputStream();
-                FileOutputStream fout = new FileOutputStream(FILE_OUTPUT_DIR + fileName)) {
-            FileCopyUtils.copy(in, fout);
+        // moves the received temp file in place when possible, instead of copying it through the heap;
+        // the move refuses an existing file, so it goes to a unique name first and then replaces the file
+        File part = new File(FILE_OUTPUT_DIR + fileName + "." + UUID.randomUUID() + ".part");
+        file.transferTo(part);
+        Files.move(part.toPath(), Paths.get(FILE_OUTPUT_DIR, fileName), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public long store(String name, InputStream content) throws IOException {
+        // the writes are timed, so an adaptive server limit backs off while the storage is slow
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.leaseArray(BUFFER_SIZE);
+        try (OutputStream out = uploadSpeedLimiters.monitorStorage(Files.newOutputStream(Paths.get(FILE_OUTPUT_DIR, name)))) {
+            long stored = 0;
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                stored += read;
+            }
+            return stored;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    @Override
+    public long storeChunk(String upload, long position, InputStream content) throws IOException {
+        BufferPool pool = BufferPool.getDefault();
+        byte[] array = pool.leaseArray(BUFFER_SIZE);
+        try (FileChannel out = openChunks(upload)) {
+            ByteBuffer buffer = ByteBuffer.wrap(array);
+            long stored = 0;
+            int read;
+            while ((read = content.read(array)) != -1) {
+                buffer.limit(read);
+                stored += write(out, position + stored, buffer);
+                buffer.clear();
+            }
+            return stored;
+        } finally {
+            pool.release(array);
+        }
+    }
+
+    @Override
+    public long storeChunk(String upload, long position, ByteBuffer content) throws IOException {
+        try (FileChannel out = openChunks(upload)) {
+            return write(out, position, content);
+        }
+    }
+
+    private static FileChannel openChunks(String upload) throws IOException {
+        // positional writes, the channels of the parallel chunks do not share a file pointer
+        return FileChannel.open(getChunksPath(upload), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private long write(FileChannel out, long position, ByteBuffer buffer) throws IOException {
+        // the writes are timed as the ones of store, see UploadSpeedLimiters#monitorStorage
+        AdaptiveSpeedController adaptiveController = uploadSpeedLimiters.getAdaptiveController();
+        long start = System.nanoTime();
+        long stored = 0;
+        while (buffer.hasRemaining()) {
+            stored += out.write(buffer, position + stored);
+        }
+        if (null != adaptiveController) {
+            adaptiveController.recordWrite(stored, System.nanoTime() - start);
         }
+        return stored;
     }
 
-}
\ No newline at end of file
+    @Override
+    public void completeChunks(String upload, String name) throws IOException {
+        Files.move(getChunksPath(upload), Paths.get(FILE_OUTPUT_DIR, name), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void abortChunks(String upload) throws IOException {
+        Files.deleteIfExists(getChunksPath(upload));
+    }
+
+    private static Path getChunksPath(String upload) {
+        return Paths.get(FILE_OUTPUT_DIR, upload + ".chunks.part");
+    }
+
+    @Override
+    public Path load(String name) throws IOException {
+        Path dir = Paths.get(FILE_OUTPUT_DIR).normalize();
+        Path path = dir.resolve(name).normalize();
+        // the name must not lead out of the storage
+        if (!dir.equals(path.getParent()) || !Files.isRegularFile(path)) {
+            throw new NoSuchFileException(name);
+        }
+        return path;
+    }
+}
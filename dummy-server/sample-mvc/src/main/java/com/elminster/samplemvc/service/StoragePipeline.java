@@ -0,0 +1,244 @@
+package com.elminster.samplemvc.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.elminster.poc.BufferPool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Store the parts of an upload while the request thread reads them: each part is read into pooled chunks,
+ * which the storage threads write positionally. The request thread only waits for the storage once
+ * {@link #QUEUED_CHUNKS} chunks of the request, or {@link #MAX_QUEUED_CHUNKS} of all requests, are queued.
+ */
+public class StoragePipeline implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StoragePipeline.class);
+
+    public static final int THREADS = 8;
+    public static final int CHUNK_SIZE = 64 * 1024; // 64KB
+    public static final int QUEUED_CHUNKS = 16; // 1MB per request
+    public static final int MAX_QUEUED_CHUNKS = 256; // 16MB for all requests
+
+    private final FileStorageService fileStorageService;
+    private final ExecutorService executor;
+    private final Semaphore queued = new Semaphore(MAX_QUEUED_CHUNKS);
+
+    public StoragePipeline(FileStorageService fileStorageService) {
+        this(fileStorageService, THREADS);
+    }
+
+    /**
+     * @param fileStorageService the storage
+     * @param threads the threads writing to the storage
+     */
+    public StoragePipeline(FileStorageService fileStorageService, int threads) {
+        if (null == fileStorageService) {
+            throw new IllegalArgumentException("File Storage Service can NOT be null.");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.fileStorageService = fileStorageService;
+        this.executor = Executors.newFixedThreadPool(threads, new StorageThreadFactory());
+    }
+
+    /**
+     * @return the batch of the parts of one request, to be closed once done
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The parts of one request, written while the request is read. The batch is used by the request thread only.
+     * Closing it drops the parts which are not completed.
+     */
+    public class Batch implements Closeable {
+
+        private final Semaphore batchQueued = new Semaphore(QUEUED_CHUNKS);
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        /**
+         * the id of the gathered chunks of each part, to the name to store the part as.
+         */
+        private final Map<String, String> parts = new LinkedHashMap<>();
+        private long bytes = 0;
+
+        /**
+         * Read the content to its end on the calling thread, while the storage threads write it.
+         * @param name the name to store the content as
+         * @param content the content
+         * @throws IOException if the content could not be read, or the storage already failed
+         */
+        public void store(String name, InputStream content) throws IOException {
+            checkFailure();
+            String id = UUID.randomUUID().toString();
+            parts.put(id, name);
+            BufferPool pool = BufferPool.getDefault();
+            long position = 0;
+            while (true) {
+                byte[] buffer = pool.leaseArray(CHUNK_SIZE);
+                int count;
+                try {
+                    count = fill(content, buffer);
+                } catch (IOException | RuntimeException e) {
+                    pool.release(buffer);
+                    throw e;
+                }
+                // an empty part still gets its file
+                if (0 == count && 0 != position) {
+                    pool.release(buffer);
+                    break;
+                }
+                write(id, position, buffer, count);
+                position += count;
+                bytes += count;
+                if (count < buffer.length) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Wait until the parts are written, and store them under their names.
+         * @return the bytes stored
+         * @throws IOException if a part could not be stored
+         */
+        public long complete() throws IOException {
+            awaitWrites();
+            checkFailure();
+            for (Iterator<Map.Entry<String, String>> it = parts.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, String> part = it.next();
+                fileStorageService.completeChunks(part.getKey(), part.getValue());
+                it.remove();
+            }
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            if (parts.isEmpty()) {
+                return;
+            }
+            awaitWrites();
+            for (String id : parts.keySet()) {
+                try {
+                    fileStorageService.abortChunks(id);
+                } catch (IOException e) {
+                    logger.warn(e.getMessage(), e);
+                }
+            }
+            parts.clear();
+        }
+
+        /**
+         * Hand the chunk to a storage thread, which releases the buffer once written.
+         */
+        private void write(String id, long position, byte[] buffer, int count) throws IOException {
+            BufferPool pool = BufferPool.getDefault();
+            try {
+                batchQueued.acquire();
+                try {
+                    // the bound of the request and the one of all requests
+                    queued.acquire();
+                } catch (InterruptedException e) {
+                    batchQueued.release();
+                    throw e;
+                }
+            } catch (InterruptedException e) {
+                pool.release(buffer);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for the storage");
+            }
+            try {
+                checkFailure();
+                executor.execute(() -> {
+                    try {
+                        // the part is dropped anyway
+                        if (null == failure.get()) {
+                            fileStorageService.storeChunk(id, position, ByteBuffer.wrap(buffer, 0, count));
+                        }
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, new IOException(e.getMessage(), e));
+                    } finally {
+                        pool.release(buffer);
+                        queued.release();
+                        batchQueued.release();
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                pool.release(buffer);
+                queued.release();
+                batchQueued.release();
+                if (e instanceof RejectedExecutionException) {
+                    throw new IOException("storage pipeline closed", e);
+                }
+                throw e;
+            }
+        }
+
+        private void awaitWrites() {
+            // the writes are short, each one holds a permit until done
+            batchQueued.acquireUninterruptibly(QUEUED_CHUNKS);
+            batchQueued.release(QUEUED_CHUNKS);
+        }
+
+        private void checkFailure() throws IOException {
+            IOException e = failure.get();
+            if (null != e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Fill the buffer, or up to the end of the content, to hand over fewer chunks.
+     * @return the bytes read, less than the buffer at the end of the content
+     */
+    private static int fill(InputStream content, byte[] buffer) throws IOException {
+        int count = 0;
+        while (count < buffer.length) {
+            int read = content.read(buffer, count, buffer.length - count);
+            if (read < 0) {
+                break;
+            }
+            count += read;
+        }
+        return count;
+    }
+
+    static class StorageThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "storage-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
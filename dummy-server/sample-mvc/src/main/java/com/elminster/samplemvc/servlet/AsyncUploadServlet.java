@@ -0,0 +1,105 @@
+package com.elminster.samplemvc.servlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.elminster.poc.SpeedLimiter;
+import com.elminster.samplemvc.service.FileStorageService;
+import com.elminster.samplemvc.upload.BufferedBodyRequestContext;
+import com.elminster.samplemvc.upload.SpeedLimitedReadListener;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.springframework.web.multipart.commons.CommonsMultipartFile;
+
+/**
+ * The non-blocking equivalent of {@code TestController.upload}: the body is received with Servlet 3.1 non-blocking
+ * reads under the speed limiter, then parsed and stored.
+ */
+public class AsyncUploadServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String PATH = "/v1/async-upload";
+
+    private final transient FileStorageService fileStorageService;
+    private final transient UploadSpeedLimiters speedLimiters;
+
+    public AsyncUploadServlet(FileStorageService fileStorageService, UploadSpeedLimiters speedLimiters) {
+        this.fileStorageService = fileStorageService;
+        this.speedLimiters = speedLimiters;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!ServletFileUpload.isMultipartContent(request)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "multipart request expected");
+            return;
+        }
+        final AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(0); // throttled uploads take as long as the limit needs
+        final File body = File.createTempFile("async-upload", ".tmp");
+        final String contentType = request.getContentType();
+        final String encoding = request.getCharacterEncoding();
+        final SpeedLimiter limiter = speedLimiters.newUploadLimiter(request);
+        ServletInputStream in = request.getInputStream();
+        in.setReadListener(new SpeedLimitedReadListener(asyncContext, in,
+                speedLimiters.monitorStorage(new FileOutputStream(body)), limiter) {
+
+            @Override
+            protected void completed() throws IOException {
+                try {
+                    store(new BufferedBodyRequestContext(body, contentType, encoding));
+                } finally {
+                    body.delete();
+                }
+                HttpServletResponse resp = (HttpServletResponse) asyncContext.getResponse();
+                resp.setStatus(HttpServletResponse.SC_OK);
+                resp.getWriter().write("received");
+                asyncContext.complete();
+            }
+
+            @Override
+            protected void failed(Throwable t) {
+                body.delete();
+                HttpServletResponse resp = (HttpServletResponse) asyncContext.getResponse();
+                if (!resp.isCommitted()) {
+                    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+                asyncContext.complete();
+            }
+        });
+    }
+
+    private void store(BufferedBodyRequestContext ctx) throws IOException {
+        ServletFileUpload fileUpload = new ServletFileUpload(new DiskFileItemFactory());
+        List<FileItem> items;
+        try {
+            items = fileUpload.parseRequest(ctx);
+        } catch (FileUploadException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        try {
+            for (FileItem item : items) {
+                if (!item.isFormField()) {
+                    fileStorageService.store(new CommonsMultipartFile(item));
+                }
+            }
+        } finally {
+            for (FileItem item : items) {
+                item.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.elminster.samplemvc.servlet;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.ServletRequest;
+
+import com.elminster.poc.SpeedLimiterScheduler;
+
+/**
+ * The pause of a non-blocking servlet stream after a {@link com.elminster.poc.SpeedLimiter#reserve(int)}, while
+ * the stream reports not ready. The listener is called back on a container thread once the pause has elapsed.
+ */
+class NonBlockingPause {
+
+    private final ServletRequest request;
+    private final AtomicBoolean resumeScheduled = new AtomicBoolean();
+    private volatile boolean paused = false;
+    private volatile long pausedUntil;
+
+    NonBlockingPause(ServletRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * @param pause the nanos returned by the limiter
+     */
+    void pause(long pause) {
+        if (pause > 0) {
+            pausedUntil = System.nanoTime() + pause;
+            paused = true;
+        }
+    }
+
+    /**
+     * @param resume called back on a container thread once the pause has elapsed, scheduled once per pause
+     * @return true if the stream must report not ready
+     */
+    boolean isPaused(Runnable resume) {
+        if (!paused) {
+            return false;
+        }
+        long remaining = pausedUntil - System.nanoTime();
+        if (remaining <= 0) {
+            paused = false;
+            return false;
+        }
+        if (resumeScheduled.compareAndSet(false, true)) {
+            SpeedLimiterScheduler.getInstance().schedule(() -> request.getAsyncContext().start(() -> {
+                resumeScheduled.set(false);
+                resume.run();
+            }), remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Run the task once the pause has elapsed, e.g. the end of the body once its last bytes are paid off.
+     * @param task the task, run at once if not paused
+     */
+    void afterPause(Runnable task) {
+        long remaining = paused ? pausedUntil - System.nanoTime() : 0;
+        if (remaining > 0) {
+            SpeedLimiterScheduler.getInstance().schedule(() -> request.getAsyncContext().start(task), remaining);
+        } else {
+            task.run();
+        }
+    }
+}
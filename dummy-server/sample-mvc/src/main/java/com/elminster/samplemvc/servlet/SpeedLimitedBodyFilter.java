@@ -0,0 +1,215 @@
+package com.elminster.samplemvc.servlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import com.elminster.poc.SpeedLimiter;
+import com.elminster.samplemvc.download.DownloadSpeedLimiters;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+
+/**
+ * Throttle the request and response bodies of the matching routes, whatever reads or writes them, under limiters of
+ * the {@link UploadSpeedLimiters} and {@link DownloadSpeedLimiters} trees. The other routes pass straight through.
+ */
+public class SpeedLimitedBodyFilter implements Filter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpeedLimitedBodyFilter.class);
+
+    private static final PathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    private final UploadSpeedLimiters uploadSpeedLimiters;
+    private final DownloadSpeedLimiters downloadSpeedLimiters;
+    private final List<String> requestPaths;
+    private final List<String> responsePaths;
+
+    public SpeedLimitedBodyFilter(UploadSpeedLimiters uploadSpeedLimiters, DownloadSpeedLimiters downloadSpeedLimiters,
+            SpeedLimitedBodyProperties properties) {
+        if (null == uploadSpeedLimiters || null == downloadSpeedLimiters || null == properties) {
+            throw new IllegalArgumentException("Upload Speed Limiters, Download Speed Limiters and Properties can NOT be null.");
+        }
+        this.uploadSpeedLimiters = uploadSpeedLimiters;
+        this.downloadSpeedLimiters = downloadSpeedLimiters;
+        this.requestPaths = new ArrayList<>(properties.getRequestPaths());
+        this.responsePaths = new ArrayList<>(properties.getResponsePaths());
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        if (!(req instanceof HttpServletRequest) || !(res instanceof HttpServletResponse)) {
+            chain.doFilter(req, res);
+            return;
+        }
+        HttpServletRequest request = (HttpServletRequest) req;
+        String path = getPath(request);
+        boolean throttleRequest = matches(requestPaths, path);
+        boolean throttleResponse = matches(responsePaths, path);
+        if (!throttleRequest && !throttleResponse) {
+            chain.doFilter(req, res);
+            return;
+        }
+        SpeedLimitedRequest throttledRequest = throttleRequest
+                ? new SpeedLimitedRequest(request, uploadSpeedLimiters.newUploadLimiter(request)) : null;
+        SpeedLimitedResponse throttledResponse = throttleResponse
+                ? new SpeedLimitedResponse((HttpServletResponse) res, request,
+                        downloadSpeedLimiters.newDownloadLimiter(request)) : null;
+        try {
+            chain.doFilter(null == throttledRequest ? req : throttledRequest,
+                    null == throttledResponse ? res : throttledResponse);
+            if (null != throttledResponse && !request.isAsyncStarted()) {
+                // the last bytes may still be in the batch of the throttled stream
+                throttledResponse.flushBuffer();
+            }
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        close(throttledRequest, throttledResponse);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                        close(throttledRequest, throttledResponse);
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                        close(throttledRequest, throttledResponse);
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                        // still the same request
+                    }
+                });
+            } else {
+                close(throttledRequest, throttledResponse);
+            }
+        }
+    }
+
+    private static void close(SpeedLimitedRequest request, SpeedLimitedResponse response) {
+        if (null != request) {
+            close(request.speedLimiter);
+        }
+        if (null != response) {
+            close(response.speedLimiter);
+        }
+    }
+
+    private static void close(SpeedLimiter speedLimiter) {
+        try {
+            speedLimiter.close();
+        } catch (IOException e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    private static boolean matches(List<String> patterns, String path) {
+        for (String pattern : patterns) {
+            if (PATH_MATCHER.match(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getPath(HttpServletRequest request) {
+        String pathInfo = request.getPathInfo();
+        return null == pathInfo ? request.getServletPath() : request.getServletPath() + pathInfo;
+    }
+
+    private static class SpeedLimitedRequest extends HttpServletRequestWrapper {
+        private final SpeedLimiter speedLimiter;
+        private ServletInputStream in;
+        private BufferedReader reader;
+
+        SpeedLimitedRequest(HttpServletRequest request, SpeedLimiter speedLimiter) {
+            super(request);
+            this.speedLimiter = speedLimiter;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (null == in) {
+                in = new SpeedLimitedServletInputStream(super.getInputStream(), speedLimiter, this);
+            }
+            return in;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (null == reader) {
+                String encoding = getCharacterEncoding();
+                reader = new BufferedReader(new InputStreamReader(getInputStream(),
+                        null == encoding ? StandardCharsets.ISO_8859_1.name() : encoding));
+            }
+            return reader;
+        }
+    }
+
+    private static class SpeedLimitedResponse extends HttpServletResponseWrapper {
+        private final ServletRequest request;
+        private final SpeedLimiter speedLimiter;
+        private ServletOutputStream out;
+        private PrintWriter writer;
+
+        SpeedLimitedResponse(HttpServletResponse response, ServletRequest request, SpeedLimiter speedLimiter) {
+            super(response);
+            this.request = request;
+            this.speedLimiter = speedLimiter;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (null == out) {
+                out = new SpeedLimitedServletOutputStream(super.getOutputStream(), speedLimiter, request);
+            }
+            return out;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (null == writer) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (null != writer) {
+                writer.flush();
+            } else if (null != out) {
+                out.flush();
+            }
+            super.flushBuffer();
+        }
+    }
+}
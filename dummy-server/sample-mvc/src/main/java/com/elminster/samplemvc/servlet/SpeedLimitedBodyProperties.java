@@ -0,0 +1,33 @@
+package com.elminster.samplemvc.servlet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The routes whose bodies are throttled by the {@link SpeedLimitedBodyFilter}, as ant patterns configured under
+ * {@code sample.throttle} in the application.yaml.
+ */
+@ConfigurationProperties(prefix = "sample.throttle")
+public class SpeedLimitedBodyProperties {
+
+    private List<String> requestPaths = new ArrayList<>();
+    private List<String> responsePaths = new ArrayList<>();
+
+    public List<String> getRequestPaths() {
+        return requestPaths;
+    }
+
+    public void setRequestPaths(List<String> requestPaths) {
+        this.requestPaths = requestPaths;
+    }
+
+    public List<String> getResponsePaths() {
+        return responsePaths;
+    }
+
+    public void setResponsePaths(List<String> responsePaths) {
+        this.responsePaths = responsePaths;
+    }
+}
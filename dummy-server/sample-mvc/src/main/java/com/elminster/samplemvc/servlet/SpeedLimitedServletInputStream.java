@@ -0,0 +1,165 @@
+package com.elminster.samplemvc.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+
+import com.elminster.poc.SpeedLimitedInputStream;
+import com.elminster.poc.SpeedLimiter;
+
+/**
+ * Throttle a request body in both servlet I/O modes: blocking reads wait for the limiter, non-blocking reads
+ * report not ready until their bytes conform to the limit.
+ */
+public class SpeedLimitedServletInputStream extends ServletInputStream {
+
+    private final ServletInputStream target;
+    private final SpeedLimiter speedLimiter;
+    private final SpeedLimitedInputStream blocking;
+    private final NonBlockingPause pause;
+    private volatile ReadListener listener;
+
+    /**
+     * @param target the body
+     * @param speedLimiter the limiter, closed with the stream
+     * @param request the request, for its async context in the non-blocking mode
+     */
+    public SpeedLimitedServletInputStream(ServletInputStream target, SpeedLimiter speedLimiter,
+            ServletRequest request) {
+        if (null == target || null == speedLimiter || null == request) {
+            throw new IllegalArgumentException("Target ServletInputStream, Speed Limiter and Request can NOT be null.");
+        }
+        this.target = target;
+        this.speedLimiter = speedLimiter;
+        this.blocking = new SpeedLimitedInputStream(target, speedLimiter);
+        this.pause = new NonBlockingPause(request);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (null == listener) {
+            return blocking.read();
+        }
+        int b = target.read();
+        if (b >= 0) {
+            pause.pause(speedLimiter.reserve(1));
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if (null == listener) {
+            return blocking.read(b, off, len);
+        }
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (0 == len) {
+            return 0;
+        }
+        int read = target.read(b, off, Math.min(len, speedLimiter.getMaxBurstInBytes()));
+        if (read > 0) {
+            pause.pause(speedLimiter.reserve(read));
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return null == listener ? blocking.skip(n) : super.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return null == listener ? blocking.available() : target.available();
+    }
+
+    /**
+     * Copy the rest of the body to the output at the limited speed, see
+     * {@link SpeedLimitedInputStream#transferTo(OutputStream)}.
+     * @param out the output stream
+     * @return the number of bytes transferred
+     * @throws IOException on I/O error
+     */
+    public long transferTo(OutputStream out) throws IOException {
+        if (null == listener) {
+            return blocking.transferTo(out);
+        }
+        throw new IllegalStateException("blocking read in the non-blocking mode");
+    }
+
+    @Override
+    public boolean isFinished() {
+        try {
+            return target.isFinished() && (null != listener || 0 == blocking.available());
+        } catch (IOException e) {
+            return target.isFinished();
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        if (null == listener) {
+            return target.isReady();
+        }
+        return !pause.isPaused(this::resume) && target.isReady();
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+        if (null == readListener) {
+            throw new IllegalArgumentException("Read Listener can NOT be null.");
+        }
+        this.listener = readListener;
+        target.setReadListener(new ReadListener() {
+            @Override
+            public void onDataAvailable() throws IOException {
+                readListener.onDataAvailable();
+            }
+
+            @Override
+            public void onAllDataRead() throws IOException {
+                // the last bytes read are not paid off yet
+                pause.afterPause(() -> {
+                    try {
+                        readListener.onAllDataRead();
+                    } catch (IOException | RuntimeException e) {
+                        readListener.onError(e);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                readListener.onError(t);
+            }
+        });
+    }
+
+    /**
+     * The pause has elapsed, go on reading if the container has data,
+     * otherwise the container calls back once it has.
+     */
+    private void resume() {
+        try {
+            if (target.isReady()) {
+                listener.onDataAvailable();
+            }
+        } catch (IOException | RuntimeException e) {
+            listener.onError(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            blocking.close();
+        } finally {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.elminster.samplemvc.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.WriteListener;
+
+import com.elminster.poc.SpeedLimitedOutputStream;
+import com.elminster.poc.SpeedLimiter;
+
+/**
+ * Throttle a response body in both servlet I/O modes: blocking writes wait for the limiter, non-blocking writes
+ * report not ready until their bytes conform to the limit.
+ */
+public class SpeedLimitedServletOutputStream extends ServletOutputStream {
+
+    private final ServletOutputStream target;
+    private final SpeedLimiter speedLimiter;
+    private final SpeedLimitedOutputStream blocking;
+    private final NonBlockingPause pause;
+    private volatile WriteListener listener;
+
+    /**
+     * @param target the body
+     * @param speedLimiter the limiter, closed with the stream
+     * @param request the request, for its async context in the non-blocking mode
+     */
+    public SpeedLimitedServletOutputStream(ServletOutputStream target, SpeedLimiter speedLimiter,
+            ServletRequest request) {
+        if (null == target || null == speedLimiter || null == request) {
+            throw new IllegalArgumentException("Target ServletOutputStream, Speed Limiter and Request can NOT be null.");
+        }
+        this.target = target;
+        this.speedLimiter = speedLimiter;
+        this.blocking = new SpeedLimitedOutputStream(target, speedLimiter);
+        this.pause = new NonBlockingPause(request);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (null == listener) {
+            blocking.write(b);
+            return;
+        }
+        target.write(b);
+        pause.pause(speedLimiter.reserve(1));
+    }
+
+    @Override
+    public void write(byte b[], int off, int len) throws IOException {
+        if (null == listener) {
+            blocking.write(b, off, len);
+            return;
+        }
+        target.write(b, off, len);
+        if (len > 0) {
+            pause.pause(speedLimiter.reserve(len));
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        if (null == listener) {
+            return target.isReady();
+        }
+        return !pause.isPaused(this::resume) && target.isReady();
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+        if (null == writeListener) {
+            throw new IllegalArgumentException("Write Listener can NOT be null.");
+        }
+        this.listener = writeListener;
+        target.setWriteListener(writeListener);
+    }
+
+    /**
+     * The pause has elapsed, go on writing if the container can take more,
+     * otherwise the container calls back once it can.
+     */
+    private void resume() {
+        try {
+            if (target.isReady()) {
+                listener.onWritePossible();
+            }
+        } catch (IOException | RuntimeException e) {
+            listener.onError(e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (null == listener) {
+            blocking.flush();
+        } else {
+            target.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            blocking.close();
+        } finally {
+            target.close();
+        }
+    }
+}
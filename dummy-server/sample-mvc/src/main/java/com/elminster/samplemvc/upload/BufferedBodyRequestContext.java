@@ -0,0 +1,50 @@
+package com.elminster.samplemvc.upload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.fileupload.UploadContext;
+
+/**
+ * A multipart request context over a request body which was already received into a file.
+ */
+public class BufferedBodyRequestContext implements UploadContext {
+
+    private final File body;
+    private final String contentType;
+    private final String characterEncoding;
+
+    public BufferedBodyRequestContext(File body, String contentType, String characterEncoding) {
+        this.body = body;
+        this.contentType = contentType;
+        this.characterEncoding = characterEncoding;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    @Deprecated
+    public int getContentLength() {
+        return (int) body.length();
+    }
+
+    @Override
+    public long contentLength() {
+        return body.length();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new FileInputStream(body);
+    }
+}
@@ -0,0 +1,133 @@
+package com.elminster.samplemvc.upload;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import com.elminster.poc.SpeedLimiter;
+
+/**
+ * An upload sent in numbered chunks of a fixed size, in any order and over parallel connections, under one limiter.
+ * A chunk sent again replaces the first one, and counts as missing until it is stored in full.
+ */
+public class ChunkedUpload {
+
+    private final String id;
+    private final String name;
+    private final long size;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final SpeedLimiter speedLimiter;
+    private final BitSet received;
+
+    /**
+     * @param id the id of the upload
+     * @param name the name to store the file as
+     * @param size the size of the file in bytes
+     * @param chunkSize the size of the chunks in bytes
+     * @param speedLimiter the limiter shared by the chunks
+     */
+    public ChunkedUpload(String id, String name, long size, int chunkSize, SpeedLimiter speedLimiter) {
+        if (null == id || null == name || null == speedLimiter) {
+            throw new IllegalArgumentException("Id, Name and Speed Limiter can NOT be null.");
+        }
+        if (size <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("size and chunk size must be positive");
+        }
+        long chunks = (size + chunkSize - 1) / chunkSize;
+        if (chunks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many chunks: " + chunks);
+        }
+        this.id = id;
+        this.name = name;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (int) chunks;
+        this.speedLimiter = speedLimiter;
+        this.received = new BitSet(chunkCount);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * @return the limiter of the upload, each chunk gets a child of it
+     */
+    public SpeedLimiter getSpeedLimiter() {
+        return speedLimiter;
+    }
+
+    /**
+     * @param index the index of the chunk
+     * @return the offset of the chunk in the file
+     */
+    public long getChunkOffset(int index) {
+        checkIndex(index);
+        return (long) index * chunkSize;
+    }
+
+    /**
+     * @param index the index of the chunk
+     * @return the size of the chunk in bytes
+     */
+    public int getChunkLength(int index) {
+        return (int) Math.min(chunkSize, size - getChunkOffset(index));
+    }
+
+    /**
+     * @param index the index of the chunk, stored in full
+     */
+    public synchronized void markReceived(int index) {
+        checkIndex(index);
+        received.set(index);
+    }
+
+    /**
+     * @param index the index of the chunk, about to be overwritten
+     */
+    public synchronized void markMissing(int index) {
+        checkIndex(index);
+        received.clear(index);
+    }
+
+    /**
+     * @return the indexes of the chunks still to be sent, in order
+     */
+    public synchronized List<Integer> getMissingChunks() {
+        List<Integer> missing = new ArrayList<>();
+        for (int index = received.nextClearBit(0); index < chunkCount; index = received.nextClearBit(index + 1)) {
+            missing.add(index);
+        }
+        return missing;
+    }
+
+    /**
+     * @return true if every chunk is stored
+     */
+    public synchronized boolean isComplete() {
+        return received.cardinality() == chunkCount;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= chunkCount) {
+            throw new IllegalArgumentException("chunk " + index + " out of [0, " + chunkCount + ")");
+        }
+    }
+}
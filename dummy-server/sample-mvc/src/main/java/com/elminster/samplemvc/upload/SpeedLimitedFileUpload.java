@@ -2,9 +2,12 @@ package com.elminster.samplemvc.upload;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.servlet.http.HttpServletRequest;
+
 import com.elminster.poc.SpeedLimitedInputStream;
 import com.elminster.poc.SpeedLimiter;
 
@@ -16,13 +19,12 @@ import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.RequestContext;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
-import org.apache.commons.fileupload.util.Streams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class SpeedLimitedFileUpload extends ServletFileUpload {
 
-    private static final int SPEED_LIMIT = 1024 * 1024; // 1MB
+    public static final long SPEED_LIMIT = 1024 * 1024; // 1MB, the default, see UploadSpeedLimiters#setUploadSpeedLimit
 
     private static final Logger logger = LoggerFactory.getLogger(SpeedLimitedFileUpload.class);
 
@@ -36,6 +38,37 @@ public class SpeedLimitedFileUpload extends ServletFileUpload {
 
     public List<FileItem> parseRequest(RequestContext ctx)
             throws FileUploadException {
+        return parseRequest(ctx, null, null);
+    }
+
+    /**
+     * Stream the parts of the request instead of parsing them into file items: each part is read
+     * once, straight from the request, so it can be written once to its final storage.
+     * @param ctx the request context
+     * @param speedLimiters the limiter tree, or null to limit each part to {@link #SPEED_LIMIT} on its own
+     * @param request the request, to pick the policy and the client limiter
+     * @return the parts, to be closed once done
+     * @throws FileUploadException if the request is not a valid multipart request
+     * @throws IOException on I/O error
+     */
+    public SpeedLimitedPartIterator getPartIterator(RequestContext ctx, UploadSpeedLimiters speedLimiters,
+            HttpServletRequest request) throws FileUploadException, IOException {
+        return new SpeedLimitedPartIterator(getItemIterator(ctx), () -> null == speedLimiters
+                ? new SpeedLimiter(SPEED_LIMIT) : speedLimiters.newUploadLimiter(request));
+    }
+
+    /**
+     * Parse the request, limiting each file to the upload speed limit of the request policy and charging it
+     * against the client limiter.
+     * @param ctx the request context
+     * @param speedLimiters the limiter tree, or null to limit each file to {@link #SPEED_LIMIT} on its own
+     * @param request the request, to pick the policy and the client limiter
+     * @return the file items
+     * @throws FileUploadException if the request could not be parsed
+     */
+    public List<FileItem> parseRequest(RequestContext ctx, UploadSpeedLimiters speedLimiters,
+            HttpServletRequest request)
+            throws FileUploadException {
         List<FileItem> items = new ArrayList<>();
         boolean successful = false;
         try {
@@ -53,17 +86,24 @@ public class SpeedLimitedFileUpload extends ServletFileUpload {
                 SpeedLimitedInputStream speedLimitedIn = null;
                 try {
                     InputStream in = item.openStream();
-                    SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMIT);
+                    SpeedLimiter limiter = null == speedLimiters
+                        ? new SpeedLimiter(SPEED_LIMIT) : speedLimiters.newUploadLimiter(request);
                     speedLimitedIn = new SpeedLimitedInputStream(in, limiter);
                     logger.info("start saving file [{}]...", fileName);
                     logger.info("limit the file upload to [{}]", 
                         SpeedLimiter.UNLIMITED == limiter.getMaxSpeedInBytesPerSec() ? 
-                        "Unlimited" : limiter.getMaxSpeedInBytesPerSec() + " KB/s");
+                        "Unlimited" : limiter.getMaxSpeedInBytesPerSec() + " bytes/s");
                     long now = System.currentTimeMillis();
-                    long size = Streams.copy(speedLimitedIn, fileItem.getOutputStream(), true);
+                    OutputStream out = null == speedLimiters
+                        ? fileItem.getOutputStream() : speedLimiters.monitorStorage(fileItem.getOutputStream());
+                    long size;
+                    // through a pooled buffer, the upload may hold it for long
+                    try (OutputStream target = out) {
+                        size = speedLimitedIn.transferTo(target);
+                    }
                     long elasped = System.currentTimeMillis() - now;
                     logger.info("saving file finished, elasped time: [{} ms], speed [{} KB/s]",
-                        elasped, size / 1024 / ((double)elasped / 1000));
+                        elasped, size / 1024.0 / ((double) Math.max(1, elasped) / 1000));
                 } catch (FileUploadIOException e) {
                     throw (FileUploadException) e.getCause();
                 } catch (IOException e) {
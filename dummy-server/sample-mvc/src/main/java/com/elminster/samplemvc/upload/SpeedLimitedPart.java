@@ -0,0 +1,83 @@
+package com.elminster.samplemvc.upload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.elminster.poc.SpeedLimitedInputStream;
+import com.elminster.poc.SpeedLimiter;
+
+import org.apache.commons.fileupload.FileItemHeaders;
+import org.apache.commons.fileupload.FileItemStream;
+
+/**
+ * One part of a streamed multipart request, read straight from the request at the limited speed.
+ * The part can be read once, before the iterator moves on, see {@link SpeedLimitedPartIterator}.
+ */
+public class SpeedLimitedPart implements Closeable {
+
+    private final FileItemStream item;
+    private final SpeedLimiter limiter;
+    private SpeedLimitedInputStream stream;
+
+    SpeedLimitedPart(FileItemStream item, SpeedLimiter limiter) {
+        this.item = item;
+        this.limiter = limiter;
+    }
+
+    public String getFieldName() {
+        return item.getFieldName();
+    }
+
+    /**
+     * @return the file name given by the client, null for a form field
+     */
+    public String getFileName() {
+        return item.getName();
+    }
+
+    public String getContentType() {
+        return item.getContentType();
+    }
+
+    public boolean isFormField() {
+        return item.isFormField();
+    }
+
+    public FileItemHeaders getHeaders() {
+        return item.getHeaders();
+    }
+
+    public SpeedLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * @return the throttled content of the part
+     * @throws IOException on I/O error
+     */
+    public InputStream openStream() throws IOException {
+        if (null == stream) {
+            stream = new SpeedLimitedInputStream(item.openStream(), limiter);
+        }
+        return stream;
+    }
+
+    /**
+     * Skip the rest of the part at the limited speed, the skipped bytes are received all the same.
+     */
+    void skipRest() throws IOException {
+        InputStream in = openStream();
+        while (in.skip(Long.MAX_VALUE) > 0 || in.read() != -1) {
+            // until the end of the part
+        }
+    }
+
+    /**
+     * Release the limiter of the part.
+     */
+    @Override
+    public void close() throws IOException {
+        limiter.close();
+    }
+}
@@ -0,0 +1,58 @@
+package com.elminster.samplemvc.upload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+import com.elminster.poc.SpeedLimiter;
+
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileUploadException;
+
+/**
+ * Iterate the parts of a multipart request while it is received, without buffering them in temp files.
+ * Each part gets its own limiter, the unread rest of a part is skipped under it when the iterator moves on.
+ */
+public class SpeedLimitedPartIterator implements Closeable {
+
+    private final FileItemIterator items;
+    private final Supplier<SpeedLimiter> limiterFactory;
+    private SpeedLimitedPart current;
+
+    SpeedLimitedPartIterator(FileItemIterator items, Supplier<SpeedLimiter> limiterFactory) {
+        this.items = items;
+        this.limiterFactory = limiterFactory;
+    }
+
+    public boolean hasNext() throws FileUploadException, IOException {
+        if (null != current) {
+            try {
+                current.skipRest();
+            } finally {
+                closeCurrent();
+            }
+        }
+        return items.hasNext();
+    }
+
+    public SpeedLimitedPart next() throws FileUploadException, IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        current = new SpeedLimitedPart(items.next(), limiterFactory.get());
+        return current;
+    }
+
+    private void closeCurrent() throws IOException {
+        if (null != current) {
+            current.close();
+            current = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeCurrent();
+    }
+}
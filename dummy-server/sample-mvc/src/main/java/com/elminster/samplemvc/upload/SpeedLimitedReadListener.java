@@ -0,0 +1,139 @@
+package com.elminster.samplemvc.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+import com.elminster.poc.BufferPool;
+import com.elminster.poc.SpeedLimiter;
+import com.elminster.poc.SpeedLimiterScheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives a request body with non-blocking reads under a speed limiter, resuming once the pause given by
+ * {@link SpeedLimiter#reserve(int)} has elapsed instead of sleeping. The read buffer is leased from the
+ * {@link BufferPool#getDefault() default pool} until the body is read.
+ */
+public abstract class SpeedLimitedReadListener implements ReadListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpeedLimitedReadListener.class);
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final AsyncContext asyncContext;
+    private final ServletInputStream in;
+    private final OutputStream out;
+    private final SpeedLimiter limiter;
+    private byte[] buffer;
+
+    private volatile long pausedUntil;
+    private volatile boolean allDataRead = false;
+
+    public SpeedLimitedReadListener(AsyncContext asyncContext, ServletInputStream in, OutputStream out,
+            SpeedLimiter limiter) {
+        this.asyncContext = asyncContext;
+        this.in = in;
+        this.out = out;
+        this.limiter = limiter;
+        this.buffer = BufferPool.getDefault().leaseArray(BufferPool.getBufferSize(limiter, BUFFER_SIZE));
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        pump();
+    }
+
+    /**
+     * Read while the container has data and the limiter has budget.
+     * Returning while {@link ServletInputStream#isReady()} is still true means the container
+     * won't call back, so a resume is scheduled for when the limiter has budget again.
+     */
+    private synchronized void pump() throws IOException {
+        while (!allDataRead && null != buffer && in.isReady()) {
+            // one burst at most, the pooled buffer may be larger
+            int read = in.read(buffer, 0, Math.min(buffer.length, limiter.getMaxBurstInBytes()));
+            if (read < 0) {
+                return;
+            }
+            out.write(buffer, 0, read);
+            long pause = limiter.reserve(read);
+            if (pause > 0) {
+                pausedUntil = System.nanoTime() + pause;
+                SpeedLimiterScheduler.getInstance().schedule(() -> asyncContext.start(this::resume), pause);
+                return;
+            }
+        }
+    }
+
+    private void resume() {
+        try {
+            pump();
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        allDataRead = true;
+        releaseBuffer();
+        out.close();
+        limiter.close();
+        long pause = pausedUntil - System.nanoTime();
+        if (pause > 0) {
+            // the last bytes read are not paid off yet
+            SpeedLimiterScheduler.getInstance().schedule(() -> asyncContext.start(this::complete), pause);
+        } else {
+            complete();
+        }
+    }
+
+    private void complete() {
+        try {
+            completed();
+        } catch (IOException | RuntimeException e) {
+            onError(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        logger.error(t.getMessage(), t);
+        allDataRead = true;
+        releaseBuffer();
+        try {
+            out.close();
+            limiter.close();
+        } catch (IOException e) {
+            logger.warn(e.getMessage(), e);
+        }
+        failed(t);
+    }
+
+    /**
+     * Give the buffer back once no read can use it any more.
+     */
+    private synchronized void releaseBuffer() {
+        if (null != buffer) {
+            BufferPool.getDefault().release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Called once the whole body is received, the async context is still open.
+     * @throws IOException if the body could not be processed
+     */
+    protected abstract void completed() throws IOException;
+
+    /**
+     * Called when receiving or processing the body failed, the async context is still open.
+     * @param t the failure
+     */
+    protected abstract void failed(Throwable t);
+}
@@ -0,0 +1,234 @@
+package com.elminster.samplemvc.upload;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.elminster.poc.SpeedLimiter;
+import com.google.common.net.InetAddresses;
+
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+
+/**
+ * The speed limits applying to the requests matched by the policy, see {@link UploadSpeedLimitProperties.Policy}.
+ */
+public class UploadPolicy {
+
+    public static final String DEFAULT = "default";
+
+    private static final PathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    private final String name;
+    private final List<Cidr> cidrs = new ArrayList<>();
+    private final Set<String> principals;
+    private final Map<String, String> headers;
+    private final List<String> paths;
+    private final long clientSpeedLimit;
+    private volatile long uploadSpeedLimit;
+    private final SpeedLimiter.Priority priority;
+    private final int weight;
+
+    /**
+     * Create the default policy, matching every request.
+     * @param clientSpeedLimit the limit shared by the uploads of a client
+     * @param uploadSpeedLimit the limit of each upload
+     */
+    public UploadPolicy(long clientSpeedLimit, long uploadSpeedLimit) {
+        this(DEFAULT, Collections.emptyList(), Collections.emptyList(), Collections.emptyMap(),
+                Collections.emptyList(), clientSpeedLimit, uploadSpeedLimit, SpeedLimiter.Priority.NORMAL, 1);
+    }
+
+    public UploadPolicy(UploadSpeedLimitProperties.Policy policy, long defaultClientSpeedLimit,
+            long defaultUploadSpeedLimit) {
+        this(policy.getName(), policy.getCidrs(), policy.getPrincipals(), policy.getHeaders(), policy.getPaths(),
+                null == policy.getClientSpeedLimit() ? defaultClientSpeedLimit : policy.getClientSpeedLimit(),
+                null == policy.getUploadSpeedLimit() ? defaultUploadSpeedLimit : policy.getUploadSpeedLimit(),
+                null == policy.getPriority() ? SpeedLimiter.Priority.NORMAL : policy.getPriority(),
+                null == policy.getWeight() ? 1 : policy.getWeight());
+    }
+
+    private UploadPolicy(String name, List<String> cidrs, List<String> principals, Map<String, String> headers,
+            List<String> paths, long clientSpeedLimit, long uploadSpeedLimit, SpeedLimiter.Priority priority,
+            int weight) {
+        if (null == name || name.isEmpty()) {
+            throw new IllegalArgumentException("Policy name can NOT be empty.");
+        }
+        checkSpeedLimit(clientSpeedLimit);
+        checkSpeedLimit(uploadSpeedLimit);
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight should be greater than 0.");
+        }
+        this.name = name;
+        for (String cidr : cidrs) {
+            this.cidrs.add(new Cidr(cidr));
+        }
+        this.principals = new HashSet<>(principals);
+        this.headers = new LinkedHashMap<>(headers);
+        this.paths = new ArrayList<>(paths);
+        this.clientSpeedLimit = clientSpeedLimit;
+        this.uploadSpeedLimit = uploadSpeedLimit;
+        this.priority = priority;
+        this.weight = weight;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getClientSpeedLimit() {
+        return clientSpeedLimit;
+    }
+
+    public long getUploadSpeedLimit() {
+        return uploadSpeedLimit;
+    }
+
+    public SpeedLimiter.Priority getPriority() {
+        return priority;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Give the limiter the priority class and the weight of the policy in the share of its parent.
+     * @param limiter a client or upload limiter
+     * @return the limiter
+     */
+    public SpeedLimiter prioritize(SpeedLimiter limiter) {
+        limiter.setPriority(priority);
+        limiter.setWeight(weight);
+        return limiter;
+    }
+
+    /**
+     * Change the limit of the uploads to come, the running uploads keep theirs.
+     * @param uploadSpeedLimit the limit of each upload
+     */
+    public void setUploadSpeedLimit(long uploadSpeedLimit) {
+        checkSpeedLimit(uploadSpeedLimit);
+        this.uploadSpeedLimit = uploadSpeedLimit;
+    }
+
+    /**
+     * @return the names of the headers the policy is matched on
+     */
+    public Set<String> getHeaderNames() {
+        return headers.keySet();
+    }
+
+    /**
+     * @return true if the policy is matched on the path
+     */
+    public boolean isPathDependent() {
+        return !paths.isEmpty();
+    }
+
+    /**
+     * @param request the request
+     * @param path the path within the application
+     * @return true if all the criteria of the policy match the request
+     */
+    public boolean matches(HttpServletRequest request, String path) {
+        return matchesCidrs(request.getRemoteAddr())
+                && matchesPrincipals(request)
+                && matchesHeaders(request)
+                && matchesPaths(path);
+    }
+
+    private boolean matchesCidrs(String remoteAddr) {
+        if (cidrs.isEmpty()) {
+            return true;
+        }
+        InetAddress address;
+        try {
+            address = InetAddresses.forString(remoteAddr);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        for (Cidr cidr : cidrs) {
+            if (cidr.contains(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesPrincipals(HttpServletRequest request) {
+        return principals.isEmpty()
+                || (null != request.getUserPrincipal() && principals.contains(request.getUserPrincipal().getName()));
+    }
+
+    private boolean matchesHeaders(HttpServletRequest request) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!header.getValue().equals(request.getHeader(header.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matchesPaths(String path) {
+        if (paths.isEmpty()) {
+            return true;
+        }
+        for (String pattern : paths) {
+            if (PATH_MATCHER.match(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void checkSpeedLimit(long speedLimit) {
+        if (speedLimit <= 0 && SpeedLimiter.UNLIMITED != speedLimit) {
+            throw new IllegalArgumentException("Speed Limit should be greater than 0.");
+        }
+    }
+
+    /**
+     * An IPv4 or IPv6 block, e.g. 10.0.0.0/8, or a single address.
+     */
+    static class Cidr {
+
+        private final byte[] network;
+        private final int prefixLength;
+
+        Cidr(String cidr) {
+            int slash = cidr.indexOf('/');
+            this.network = InetAddresses.forString(slash < 0 ? cidr : cidr.substring(0, slash)).getAddress();
+            this.prefixLength = slash < 0 ? network.length * 8 : Integer.parseInt(cidr.substring(slash + 1));
+            if (prefixLength < 0 || prefixLength > network.length * 8) {
+                throw new IllegalArgumentException("Invalid CIDR: " + cidr);
+            }
+        }
+
+        boolean contains(InetAddress address) {
+            byte[] bytes = address.getAddress();
+            if (bytes.length != network.length) {
+                return false;
+            }
+            int fullBytes = prefixLength / 8;
+            for (int i = 0; i < fullBytes; i++) {
+                if (bytes[i] != network[i]) {
+                    return false;
+                }
+            }
+            int remainingBits = prefixLength % 8;
+            if (0 == remainingBits) {
+                return true;
+            }
+            int mask = 0xff << (8 - remainingBits);
+            return (bytes[fullBytes] & mask) == (network[fullBytes] & mask);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.elminster.samplemvc.upload;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.elminster.poc.ClusterQuota;
+import com.elminster.poc.SpeedLimiter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The upload speed limits, configured under {@code sample.upload} in the application.yaml.
+ * The first policy matching all of its given criteria applies, otherwise the defaults.
+ */
+@ConfigurationProperties(prefix = "sample.upload")
+public class UploadSpeedLimitProperties {
+
+    private long serverSpeedLimit = UploadSpeedLimiters.SERVER_SPEED_LIMIT;
+    private long clientSpeedLimit = UploadSpeedLimiters.CLIENT_SPEED_LIMIT;
+    private long uploadSpeedLimit = SpeedLimitedFileUpload.SPEED_LIMIT;
+    /**
+     * max requests (client, path and matched headers) whose policy is remembered.
+     */
+    private int policyCacheSize = 100000;
+    private Duration policyCacheExpiry = Duration.ofMinutes(10);
+    private List<Policy> policies = new ArrayList<>();
+    private Adaptive adaptive = new Adaptive();
+    private Cluster cluster = new Cluster();
+
+    public long getServerSpeedLimit() {
+        return serverSpeedLimit;
+    }
+
+    public void setServerSpeedLimit(long serverSpeedLimit) {
+        this.serverSpeedLimit = serverSpeedLimit;
+    }
+
+    public long getClientSpeedLimit() {
+        return clientSpeedLimit;
+    }
+
+    public void setClientSpeedLimit(long clientSpeedLimit) {
+        this.clientSpeedLimit = clientSpeedLimit;
+    }
+
+    public long getUploadSpeedLimit() {
+        return uploadSpeedLimit;
+    }
+
+    public void setUploadSpeedLimit(long uploadSpeedLimit) {
+        this.uploadSpeedLimit = uploadSpeedLimit;
+    }
+
+    public int getPolicyCacheSize() {
+        return policyCacheSize;
+    }
+
+    public void setPolicyCacheSize(int policyCacheSize) {
+        this.policyCacheSize = policyCacheSize;
+    }
+
+    public Duration getPolicyCacheExpiry() {
+        return policyCacheExpiry;
+    }
+
+    public void setPolicyCacheExpiry(Duration policyCacheExpiry) {
+        this.policyCacheExpiry = policyCacheExpiry;
+    }
+
+    public List<Policy> getPolicies() {
+        return policies;
+    }
+
+    public void setPolicies(List<Policy> policies) {
+        this.policies = policies;
+    }
+
+    public Adaptive getAdaptive() {
+        return adaptive;
+    }
+
+    public void setAdaptive(Adaptive adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * Share the client speed limit among the nodes of a cluster: the nodes lease the bytes of each client
+     * from the quota store. Without a QuotaStore bean the store is in memory, i.e. shared by this node only.
+     */
+    public static class Cluster {
+
+        private boolean enabled;
+        /**
+         * bytes per second of each client across the cluster, for the in-memory store.
+         */
+        private long clientQuota = UploadSpeedLimiters.CLIENT_SPEED_LIMIT;
+        private int minLease = ClusterQuota.MIN_LEASE;
+        private int maxLease = ClusterQuota.MAX_LEASE;
+        private Duration leasePeriod = Duration.ofNanos(ClusterQuota.LEASE_PERIOD);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getClientQuota() {
+            return clientQuota;
+        }
+
+        public void setClientQuota(long clientQuota) {
+            this.clientQuota = clientQuota;
+        }
+
+        public int getMinLease() {
+            return minLease;
+        }
+
+        public void setMinLease(int minLease) {
+            this.minLease = minLease;
+        }
+
+        public int getMaxLease() {
+            return maxLease;
+        }
+
+        public void setMaxLease(int maxLease) {
+            this.maxLease = maxLease;
+        }
+
+        public Duration getLeasePeriod() {
+            return leasePeriod;
+        }
+
+        public void setLeasePeriod(Duration leasePeriod) {
+            this.leasePeriod = leasePeriod;
+        }
+    }
+
+    /**
+     * Adjust the server speed limit to the storage: cut it while the writes to the storage are slow,
+     * raise it again while they are fast and the uploads use the whole limit.
+     */
+    public static class Adaptive {
+
+        private boolean enabled;
+        private long minSpeedLimit = UploadSpeedLimiters.CLIENT_SPEED_LIMIT;
+        private long maxSpeedLimit = UploadSpeedLimiters.SERVER_SPEED_LIMIT;
+        /**
+         * the mean write latency the storage should stay below.
+         */
+        private Duration targetWriteLatency = Duration.ofMillis(20);
+        private Duration interval = Duration.ofSeconds(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMinSpeedLimit() {
+            return minSpeedLimit;
+        }
+
+        public void setMinSpeedLimit(long minSpeedLimit) {
+            this.minSpeedLimit = minSpeedLimit;
+        }
+
+        public long getMaxSpeedLimit() {
+            return maxSpeedLimit;
+        }
+
+        public void setMaxSpeedLimit(long maxSpeedLimit) {
+            this.maxSpeedLimit = maxSpeedLimit;
+        }
+
+        public Duration getTargetWriteLatency() {
+            return targetWriteLatency;
+        }
+
+        public void setTargetWriteLatency(Duration targetWriteLatency) {
+            this.targetWriteLatency = targetWriteLatency;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+    }
+
+    public static class Policy {
+
+        private String name;
+        /**
+         * client IPs or CIDR blocks, e.g. 10.0.0.0/8.
+         */
+        private List<String> cidrs = new ArrayList<>();
+        private List<String> principals = new ArrayList<>();
+        /**
+         * header name to the expected value.
+         */
+        private Map<String, String> headers = new LinkedHashMap<>();
+        /**
+         * ant style path patterns, e.g. /v1/**.
+         */
+        private List<String> paths = new ArrayList<>();
+        /**
+         * null for the default client speed limit.
+         */
+        private Long clientSpeedLimit;
+        /**
+         * null for the default upload speed limit.
+         */
+        private Long uploadSpeedLimit;
+        /**
+         * the priority class of the clients and uploads in the shares, null for NORMAL.
+         */
+        private SpeedLimiter.Priority priority;
+        /**
+         * the weight of the clients and uploads in the shares, null for 1.
+         */
+        private Integer weight;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<String> getCidrs() {
+            return cidrs;
+        }
+
+        public void setCidrs(List<String> cidrs) {
+            this.cidrs = cidrs;
+        }
+
+        public List<String> getPrincipals() {
+            return principals;
+        }
+
+        public void setPrincipals(List<String> principals) {
+            this.principals = principals;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public void setHeaders(Map<String, String> headers) {
+            this.headers = headers;
+        }
+
+        public List<String> getPaths() {
+            return paths;
+        }
+
+        public void setPaths(List<String> paths) {
+            this.paths = paths;
+        }
+
+        public Long getClientSpeedLimit() {
+            return clientSpeedLimit;
+        }
+
+        public void setClientSpeedLimit(Long clientSpeedLimit) {
+            this.clientSpeedLimit = clientSpeedLimit;
+        }
+
+        public Long getUploadSpeedLimit() {
+            return uploadSpeedLimit;
+        }
+
+        public void setUploadSpeedLimit(Long uploadSpeedLimit) {
+            this.uploadSpeedLimit = uploadSpeedLimit;
+        }
+
+        public SpeedLimiter.Priority getPriority() {
+            return priority;
+        }
+
+        public void setPriority(SpeedLimiter.Priority priority) {
+            this.priority = priority;
+        }
+
+        public Integer getWeight() {
+            return weight;
+        }
+
+        public void setWeight(Integer weight) {
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.elminster.samplemvc.upload;
+
+import java.util.concurrent.TimeUnit;
+
+import com.elminster.poc.BufferPool;
+import com.elminster.poc.SpeedLimiter;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Publish the statistics of the upload speed limiter tree and of the copy buffers as Micrometer meters.
+ * The client limiters come and go with their uploads, so they are published as gauges only.
+ */
+public class UploadSpeedLimiterMetrics implements MeterBinder {
+
+    public static final String PREFIX = "speed.limiter";
+
+    private final UploadSpeedLimiters speedLimiters;
+
+    public UploadSpeedLimiterMetrics(UploadSpeedLimiters speedLimiters) {
+        this.speedLimiters = speedLimiters;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindLimiter(registry, speedLimiters.getServerLimiter(), Tags.of("pool", "server"));
+
+        Gauge.builder(PREFIX + ".limiters", speedLimiters, UploadSpeedLimiters::getClientLimiterCount)
+                .tags(Tags.of("pool", "client"))
+                .description("client limiters in use")
+                .register(registry);
+        Gauge.builder(PREFIX + ".active", speedLimiters, UploadSpeedLimiters::getActiveUploadCount)
+                .tags(Tags.of("pool", "client"))
+                .description("children sharing the rate of the limiters")
+                .register(registry);
+
+        bindBufferPool(registry, BufferPool.getDefault(), false, Tags.of("kind", "heap"));
+        bindBufferPool(registry, BufferPool.getDefault(), true, Tags.of("kind", "direct"));
+    }
+
+    /**
+     * Publish the meters of one kind of buffers of a pool.
+     * @param registry the registry
+     * @param pool the pool
+     * @param directBuffers true for the direct buffers, false for the heap buffers
+     * @param tags the tags identifying the kind
+     */
+    public static void bindBufferPool(MeterRegistry registry, BufferPool pool, boolean directBuffers, Tags tags) {
+        Gauge.builder(PREFIX + ".buffers.leased", pool, p -> p.getLeasedCount(directBuffers))
+                .tags(tags)
+                .description("buffers leased by the copies and not released yet")
+                .register(registry);
+        Gauge.builder(PREFIX + ".buffers.pooled", pool, p -> p.getPooledBytes(directBuffers))
+                .tags(tags)
+                .baseUnit("bytes")
+                .description("bytes of the released buffers kept for the next leases")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + ".buffers.leases", pool, p -> p.getLeaseCount(directBuffers))
+                .tags(tags)
+                .description("buffers leased")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + ".buffers.allocations", pool, p -> p.getAllocationCount(directBuffers))
+                .tags(tags)
+                .description("leases which found no pooled buffer and allocated one")
+                .register(registry);
+    }
+
+    /**
+     * Publish the meters of one limiter.
+     * @param registry the registry
+     * @param limiter the limiter, only weakly referenced by the meters
+     * @param tags the tags identifying the limiter
+     */
+    public static void bindLimiter(MeterRegistry registry, SpeedLimiter limiter, Tags tags) {
+        FunctionCounter.builder(PREFIX + ".granted", limiter, SpeedLimiter::getGrantedBytes)
+                .tags(tags)
+                .baseUnit("bytes")
+                .description("bytes granted by the limiter and its descendants")
+                .register(registry);
+        FunctionTimer.builder(PREFIX + ".wait", limiter, SpeedLimiter::getStallCount,
+                SpeedLimiter::getWaitedNanos, TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .description("acquires throttled by the limiter and the time they waited")
+                .register(registry);
+        Gauge.builder(PREFIX + ".rate.configured", limiter, SpeedLimiter::getEffectiveSpeedInBytesPerSec)
+                .tags(tags)
+                .baseUnit("bytes")
+                .description("bytes per second the limiter grants right now, -1 if unlimited")
+                .register(registry);
+        Gauge.builder(PREFIX + ".rate.achieved", new AchievedRate(limiter), AchievedRate::get)
+                .tags(tags)
+                .baseUnit("bytes")
+                .description("bytes per second actually granted, sampled at most once a second")
+                .strongReference(true)
+                .register(registry);
+        Gauge.builder(PREFIX + ".active", limiter, SpeedLimiter::getActiveChildCount)
+                .tags(tags)
+                .description("children sharing the rate of the limiter")
+                .register(registry);
+    }
+
+    /**
+     * The granted bytes per second between two samples at least a second apart.
+     */
+    static class AchievedRate {
+
+        private static final long MIN_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+        private final SpeedLimiter limiter;
+        private long lastBytes;
+        private long lastNanos;
+        private double rate;
+
+        AchievedRate(SpeedLimiter limiter) {
+            this.limiter = limiter;
+            this.lastBytes = limiter.getGrantedBytes();
+            this.lastNanos = System.nanoTime();
+        }
+
+        synchronized double get() {
+            long now = System.nanoTime();
+            long elapsed = now - lastNanos;
+            if (elapsed >= MIN_INTERVAL) {
+                long bytes = limiter.getGrantedBytes();
+                rate = (bytes - lastBytes) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+                lastBytes = bytes;
+                lastNanos = now;
+            }
+            return rate;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.elminster.samplemvc.upload;
+
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.elminster.poc.AdaptiveSpeedController;
+import com.elminster.poc.ClusterQuota;
+import com.elminster.poc.LatencyRecordingOutputStream;
+import com.elminster.poc.QuotaStore;
+import com.elminster.poc.SpeedLimiter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The upload speed limiter tree: one server-wide limiter, one limiter per client and policy, and one per upload
+ * below it. Every limiter can be found by its name and changed while uploads are running, see {@link #getLimiters()}.
+ */
+public class UploadSpeedLimiters implements Closeable {
+
+    public static final long SERVER_SPEED_LIMIT = 100 * 1024 * 1024; // 100MB
+    public static final long CLIENT_SPEED_LIMIT = 2 * 1024 * 1024; // 2MB
+    public static final int PACING_BURST = 64 * 1024; // 64KB
+    public static final long PACING_RESOLUTION = TimeUnit.MILLISECONDS.toNanos(1);
+    public static final String SERVER = "server";
+    public static final String CLIENT_PREFIX = "client:";
+    public static final String UPLOAD_PREFIX = "upload:";
+
+    private final SpeedLimiter serverLimiter;
+    private final List<UploadPolicy> policies = new ArrayList<>();
+    private final UploadPolicy defaultPolicy;
+    private final Set<String> matchedHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private final boolean pathDependent;
+    private final Cache<String, UploadPolicy> resolvedPolicies;
+    private final Cache<String, SpeedLimiter> clientLimiters = CacheBuilder.newBuilder().weakValues().build();
+    private final Cache<String, SpeedLimiter> uploadLimiters = CacheBuilder.newBuilder().weakValues().build();
+    private final AtomicLong uploadSequence = new AtomicLong();
+    private final AdaptiveSpeedController adaptiveController;
+    private final QuotaStore quotaStore;
+    private final UploadSpeedLimitProperties.Cluster cluster;
+
+    public UploadSpeedLimiters() {
+        this(new UploadSpeedLimitProperties());
+    }
+
+    public UploadSpeedLimiters(UploadSpeedLimitProperties properties) {
+        this(properties, null);
+    }
+
+    /**
+     * @param properties the limits
+     * @param quotaStore the store of the cluster wide client quotas, or null to limit the clients on this node only
+     */
+    public UploadSpeedLimiters(UploadSpeedLimitProperties properties, QuotaStore quotaStore) {
+        this.serverLimiter = new SpeedLimiter(properties.getServerSpeedLimit(), PACING_BURST, PACING_RESOLUTION);
+        for (UploadSpeedLimitProperties.Policy policy : properties.getPolicies()) {
+            this.policies.add(new UploadPolicy(policy, properties.getClientSpeedLimit(),
+                    properties.getUploadSpeedLimit()));
+        }
+        this.defaultPolicy = new UploadPolicy(properties.getClientSpeedLimit(), properties.getUploadSpeedLimit());
+        boolean dependsOnPath = false;
+        for (UploadPolicy policy : policies) {
+            matchedHeaders.addAll(policy.getHeaderNames());
+            dependsOnPath |= policy.isPathDependent();
+        }
+        this.pathDependent = dependsOnPath;
+        this.resolvedPolicies = CacheBuilder.newBuilder()
+                .maximumSize(properties.getPolicyCacheSize())
+                .expireAfterAccess(properties.getPolicyCacheExpiry().toNanos(), TimeUnit.NANOSECONDS)
+                .build();
+        this.adaptiveController = newAdaptiveController(properties.getAdaptive());
+        this.quotaStore = quotaStore;
+        this.cluster = properties.getCluster();
+    }
+
+    private AdaptiveSpeedController newAdaptiveController(UploadSpeedLimitProperties.Adaptive adaptive) {
+        if (!adaptive.isEnabled()) {
+            return null;
+        }
+        AdaptiveSpeedController controller = new AdaptiveSpeedController(serverLimiter,
+                adaptive.getMinSpeedLimit(), adaptive.getMaxSpeedLimit(), adaptive.getTargetWriteLatency().toNanos());
+        controller.setIntervalInNanos(adaptive.getInterval().toNanos());
+        controller.start();
+        return controller;
+    }
+
+    public SpeedLimiter getServerLimiter() {
+        return serverLimiter;
+    }
+
+    /**
+     * @return the controller adjusting the server limit, or null if the limit is fixed
+     */
+    public AdaptiveSpeedController getAdaptiveController() {
+        return adaptiveController;
+    }
+
+    /**
+     * Time the writes of an upload to the storage, so the server limit can follow the storage.
+     * @param storage the stream to the storage
+     * @return the timed stream, or the stream itself if the limit is fixed
+     */
+    public OutputStream monitorStorage(OutputStream storage) {
+        return null == adaptiveController ? storage : new LatencyRecordingOutputStream(storage, adaptiveController);
+    }
+
+    /**
+     * Pick the policy of the request, the first configured policy matching it or the default policy.
+     * @param request the request
+     * @return the policy
+     */
+    public UploadPolicy resolvePolicy(HttpServletRequest request) {
+        String path = getPath(request);
+        try {
+            return resolvedPolicies.get(getResolutionKey(request, path), () -> {
+                for (UploadPolicy policy : policies) {
+                    if (policy.matches(request, path)) {
+                        return policy;
+                    }
+                }
+                return defaultPolicy;
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Get the limiter shared by all uploads of the client sending the request.
+     * @param request the request
+     * @return the client limiter
+     */
+    public SpeedLimiter getClientLimiter(HttpServletRequest request) {
+        return getClientLimiter(request, resolvePolicy(request));
+    }
+
+    private SpeedLimiter getClientLimiter(HttpServletRequest request, UploadPolicy policy) {
+        String clientKey = getClientKey(request);
+        String client = policy.getName() + "/" + clientKey;
+        try {
+            return clientLimiters.get(client, () -> {
+                SpeedLimiter limiter = policy.prioritize(
+                        pace(new SpeedLimiter(policy.getClientSpeedLimit(), serverLimiter)));
+                if (null != quotaStore) {
+                    limiter.setClusterQuota(newClusterQuota(CLIENT_PREFIX + clientKey));
+                }
+                return limiter;
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private ClusterQuota newClusterQuota(String name) {
+        // not closed with the client limiter, the quota gives its bytes back once idle
+        ClusterQuota quota = new ClusterQuota(quotaStore, name);
+        quota.setLeaseInBytes(cluster.getMinLease(), cluster.getMaxLease());
+        quota.setLeasePeriodInNanos(cluster.getLeasePeriod().toNanos());
+        return quota;
+    }
+
+    /**
+     * Create the limiter of a new upload below the client limiter, limited to the upload speed limit of the policy
+     * and weighted by its priority class and weight.
+     * @param request the upload request
+     * @return the paced upload limiter, to be closed once the upload is done
+     */
+    public SpeedLimiter newUploadLimiter(HttpServletRequest request) {
+        UploadPolicy policy = resolvePolicy(request);
+        SpeedLimiter limiter = policy.prioritize(
+                pace(new SpeedLimiter(policy.getUploadSpeedLimit(), getClientLimiter(request, policy))));
+        uploadLimiters.put(UPLOAD_PREFIX + uploadSequence.incrementAndGet(), limiter);
+        return limiter;
+    }
+
+    /**
+     * @return the limit of new uploads under the default policy
+     */
+    public long getUploadSpeedLimit() {
+        return defaultPolicy.getUploadSpeedLimit();
+    }
+
+    /**
+     * @return the configured policies in matching order, then the default policy
+     */
+    public List<UploadPolicy> getPolicies() {
+        List<UploadPolicy> all = new ArrayList<>(policies);
+        all.add(defaultPolicy);
+        return all;
+    }
+
+    /**
+     * @return the limiters of the tree by their names, the server first, closed uploads left out
+     */
+    public Map<String, SpeedLimiter> getLimiters() {
+        Map<String, SpeedLimiter> limiters = new LinkedHashMap<>();
+        limiters.put(SERVER, serverLimiter);
+        for (Map.Entry<String, SpeedLimiter> entry : clientLimiters.asMap().entrySet()) {
+            limiters.put(CLIENT_PREFIX + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, SpeedLimiter> entry : uploadLimiters.asMap().entrySet()) {
+            if (entry.getValue().isClosed()) {
+                uploadLimiters.invalidate(entry.getKey());
+            } else {
+                limiters.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return limiters;
+    }
+
+    /**
+     * Change the limit of one limiter. When adaptive, the limit of the server becomes the max speed of the
+     * {@link AdaptiveSpeedController}, which no longer raises it, {@link SpeedLimiter#UNLIMITED} restores
+     * the configured max speed.
+     * @param name the name of the limiter
+     * @param speedLimit the new limit in bytes per second, or {@link SpeedLimiter#UNLIMITED}
+     * @return the number of limiters changed, 0 if there is no such limiter
+     */
+    public int setSpeedLimit(String name, long speedLimit) {
+        SpeedLimiter limiter = getLimiters().get(name);
+        if (null == limiter) {
+            return 0;
+        }
+        if (null != adaptiveController && adaptiveController.getLimiter() == limiter) {
+            adaptiveController.setMaxSpeedInBytesPerSec(speedLimit);
+        } else {
+            limiter.setMaxSpeedInBytesPerSec(speedLimit);
+        }
+        return 1;
+    }
+
+    /**
+     * Change the limit of every running upload of the client.
+     * @param client the client key, e.g. "ip:127.0.0.1"
+     * @param speedLimit the new limit in bytes per second, or {@link SpeedLimiter#UNLIMITED}
+     * @return the number of limiters changed
+     */
+    public int setClientUploadSpeedLimit(String client, long speedLimit) {
+        Set<SpeedLimiter> limitersOfClient = new HashSet<>();
+        for (Map.Entry<String, SpeedLimiter> entry : clientLimiters.asMap().entrySet()) {
+            // under any policy
+            if (entry.getKey().endsWith("/" + client)) {
+                limitersOfClient.add(entry.getValue());
+            }
+        }
+        int changed = 0;
+        for (Map.Entry<String, SpeedLimiter> entry : getLimiters().entrySet()) {
+            if (entry.getKey().startsWith(UPLOAD_PREFIX) && limitersOfClient.contains(entry.getValue().getParent())) {
+                entry.getValue().setMaxSpeedInBytesPerSec(speedLimit);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Change the limit of every running upload, and of the uploads to come under any policy.
+     * @param speedLimit the new limit in bytes per second, or {@link SpeedLimiter#UNLIMITED}
+     * @return the number of limiters changed
+     */
+    public int setUploadSpeedLimit(long speedLimit) {
+        for (UploadPolicy policy : getPolicies()) {
+            policy.setUploadSpeedLimit(speedLimit);
+        }
+        int changed = 0;
+        for (Map.Entry<String, SpeedLimiter> entry : getLimiters().entrySet()) {
+            if (entry.getKey().startsWith(UPLOAD_PREFIX)) {
+                entry.getValue().setMaxSpeedInBytesPerSec(speedLimit);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the number of client limiters still in use
+     */
+    public long getClientLimiterCount() {
+        return clientLimiters.size();
+    }
+
+    /**
+     * @return the number of uploads currently sharing the client limiters
+     */
+    public int getActiveUploadCount() {
+        int count = 0;
+        for (SpeedLimiter clientLimiter : clientLimiters.asMap().values()) {
+            count += clientLimiter.getActiveChildCount();
+        }
+        return count;
+    }
+
+    /**
+     * Stop adjusting the server limit.
+     */
+    @Override
+    public void close() {
+        if (null != adaptiveController) {
+            adaptiveController.close();
+        }
+    }
+
+    /**
+     * Pace the limiter, so the uploads reach the disks as a smooth flow instead of a burst every tick.
+     * @param limiter a limiter of the tree
+     * @return the limiter
+     */
+    public static SpeedLimiter pace(SpeedLimiter limiter) {
+        limiter.setMaxBurstInBytes(PACING_BURST);
+        limiter.setResolutionInNanos(PACING_RESOLUTION);
+        return limiter;
+    }
+
+    private String getResolutionKey(HttpServletRequest request, String path) {
+        Principal principal = request.getUserPrincipal();
+        StringBuilder key = new StringBuilder(64)
+                .append(request.getRemoteAddr())
+                .append('|').append(null == principal ? "" : principal.getName());
+        if (pathDependent) {
+            key.append('|').append(path);
+        }
+        for (String header : matchedHeaders) {
+            key.append('|').append(request.getHeader(header));
+        }
+        return key.toString();
+    }
+
+    private static String getPath(HttpServletRequest request) {
+        String pathInfo = request.getPathInfo();
+        return null == pathInfo ? request.getServletPath() : request.getServletPath() + pathInfo;
+    }
+
+    protected String getClientKey(HttpServletRequest request) {
+        Principal principal = request.getUserPrincipal();
+        if (null != principal) {
+            return "user:" + principal.getName();
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+}
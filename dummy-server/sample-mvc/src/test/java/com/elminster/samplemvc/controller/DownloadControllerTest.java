@@ -0,0 +1,35 @@
+package com.elminster.samplemvc.controller;
+
+import java.io.ByteArrayInputStream;
+
+import com.elminster.samplemvc.download.DownloadSpeedLimiters;
+import com.elminster.samplemvc.service.InMemoryFileStorageService;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class DownloadControllerTest {
+
+    @Test
+    public void testClientsLeaveTheServerLimiterOnceServed() throws Exception {
+        InMemoryFileStorageService storage = new InMemoryFileStorageService();
+        storage.store("a.bin", new ByteArrayInputStream(new byte[16 * 1024]));
+        DownloadSpeedLimiters downloadSpeedLimiters = new DownloadSpeedLimiters();
+        DownloadController controller = new DownloadController();
+        ReflectionTestUtils.setField(controller, "fileStorageService", storage);
+        ReflectionTestUtils.setField(controller, "downloadSpeedLimiters", downloadSpeedLimiters);
+
+        for (int i = 1; i <= 3; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v1/download/a.bin");
+            request.setRemoteAddr("10.0.0." + i);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            controller.download("a.bin", request, response);
+            Assert.assertEquals(16 * 1024, response.getContentAsByteArray().length);
+        }
+        // the server rate is not split with the clients gone
+        Assert.assertEquals(0, downloadSpeedLimiters.getServerLimiter().getActiveChildCount());
+    }
+}
@@ -0,0 +1,84 @@
+package com.elminster.samplemvc.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.elminster.samplemvc.service.InMemoryFileStorageService;
+import com.elminster.samplemvc.service.StoragePipeline;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class TestControllerTest {
+
+    private static final String BOUNDARY = "boundary";
+
+    private InMemoryFileStorageService storage;
+    private StoragePipeline storagePipeline;
+    private TestController controller;
+
+    @Before
+    public void setUp() {
+        storage = new InMemoryFileStorageService();
+        storagePipeline = new StoragePipeline(storage, 2);
+        controller = new TestController();
+        ReflectionTestUtils.setField(controller, "fileStorageService", storage);
+        ReflectionTestUtils.setField(controller, "uploadSpeedLimiters", new UploadSpeedLimiters());
+        ReflectionTestUtils.setField(controller, "storagePipeline", storagePipeline);
+    }
+
+    @After
+    public void tearDown() {
+        storagePipeline.close();
+    }
+
+    @Test
+    public void testStreamedFilesAreStoredUnderTheirFileNames() throws Exception {
+        MockHttpServletRequest request = newMultipartRequest(
+                part("files", "a.txt", "first"),
+                part("files", "C:\\\\Users\\\\me\\\\b.txt", "second"),
+                part("nameless", "", "third"));
+        Assert.assertEquals(HttpStatus.OK, controller.streamUpload(request).getStatusCode());
+        Assert.assertArrayEquals(bytes("first"), storage.getFile("a.txt"));
+        // without the directories some browsers send
+        Assert.assertArrayEquals(bytes("second"), storage.getFile("b.txt"));
+        // the field name, if the client left the file name empty
+        Assert.assertArrayEquals(bytes("third"), storage.getFile("nameless"));
+    }
+
+    @Test
+    public void testNamesLeadingOutOfTheStorageAreRejected() throws Exception {
+        MockHttpServletRequest request = newMultipartRequest(part("file", "..", "content"));
+        Assert.assertEquals(HttpStatus.BAD_REQUEST, controller.streamUpload(request).getStatusCode());
+        Assert.assertNull(storage.getFile(".."));
+    }
+
+    private static String part(String field, String fileName, String content) {
+        return "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + field + "\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n"
+                + content + "\r\n";
+    }
+
+    private static MockHttpServletRequest newMultipartRequest(String... parts) throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (String part : parts) {
+            body.write(bytes(part));
+        }
+        body.write(bytes("--" + BOUNDARY + "--\r\n"));
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", TestController.STREAM_UPLOAD_PATH);
+        request.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+        request.setContent(body.toByteArray());
+        return request;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
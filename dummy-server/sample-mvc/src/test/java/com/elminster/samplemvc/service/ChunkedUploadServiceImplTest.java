@@ -0,0 +1,145 @@
+package com.elminster.samplemvc.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.elminster.samplemvc.upload.ChunkedUpload;
+import com.elminster.samplemvc.upload.UploadSpeedLimitProperties;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class ChunkedUploadServiceImplTest {
+
+    private static final int SPEED_LIMITION = 50 * 1024; // 50 KB/s
+    private static final int CHUNK_SIZE = ChunkedUploadServiceImpl.MIN_CHUNK_SIZE;
+
+    @Test
+    public void testChunksInAnyOrderMakeTheFile() throws Exception {
+        InMemoryFileStorageService storage = new InMemoryFileStorageService();
+        ChunkedUploadService service = new ChunkedUploadServiceImpl(storage, newUploadSpeedLimiters());
+        byte[] file = newContent(2 * CHUNK_SIZE + 100);
+        ChunkedUpload upload = service.create("a.bin", file.length, CHUNK_SIZE, new MockHttpServletRequest());
+        Assert.assertEquals(3, upload.getChunkCount());
+
+        service.storeChunk(upload, 2, chunk(file, upload, 2));
+        service.storeChunk(upload, 0, chunk(file, upload, 0));
+        Assert.assertEquals(Arrays.asList(1), service.get(upload.getId()).getMissingChunks());
+        try {
+            service.complete(upload);
+            Assert.fail("completed with a missing chunk");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // a chunk cut short is not counted
+        try {
+            service.storeChunk(upload, 1, new ByteArrayInputStream(file, CHUNK_SIZE, 10));
+            Assert.fail("stored a short chunk");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Assert.assertEquals(Arrays.asList(1), upload.getMissingChunks());
+        service.storeChunk(upload, 1, chunk(file, upload, 1));
+        // a chunk sent again and cut short has overwritten the stored one
+        try {
+            service.storeChunk(upload, 0, new ByteArrayInputStream(file, 0, 10));
+            Assert.fail("stored a short chunk");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Assert.assertEquals(Arrays.asList(0), upload.getMissingChunks());
+        service.storeChunk(upload, 0, chunk(file, upload, 0));
+        service.complete(upload);
+
+        Assert.assertArrayEquals(file, storage.getFile("a.bin"));
+        Assert.assertNull(service.get(upload.getId()));
+        Assert.assertTrue(upload.getSpeedLimiter().isClosed());
+    }
+
+    @Test
+    public void testChunkContentIsLeftOpen() throws Exception {
+        InMemoryFileStorageService storage = new InMemoryFileStorageService();
+        ChunkedUploadService service = new ChunkedUploadServiceImpl(storage, newUploadSpeedLimiters());
+        byte[] file = newContent(CHUNK_SIZE);
+        ChunkedUpload upload = service.create("c.bin", file.length, CHUNK_SIZE, new MockHttpServletRequest());
+        // as the request stream of the container, which refuses reads once closed
+        service.storeChunk(upload, 0, new ByteArrayInputStream(file) {
+            private boolean closed = false;
+
+            @Override
+            public synchronized int read() {
+                if (closed) {
+                    throw new IllegalStateException("Stream closed");
+                }
+                return super.read();
+            }
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (closed) {
+                    throw new IllegalStateException("Stream closed");
+                }
+                return super.read(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+            }
+        });
+        Assert.assertTrue(upload.isComplete());
+    }
+
+    @Test
+    public void testParallelChunksShareTheUploadLimit() throws Exception {
+        ChunkedUploadService service = new ChunkedUploadServiceImpl(new InMemoryFileStorageService(),
+                newUploadSpeedLimiters());
+        byte[] file = newContent(2 * CHUNK_SIZE);
+        ChunkedUpload upload = service.create("b.bin", file.length, CHUNK_SIZE, new MockHttpServletRequest());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            long start = System.nanoTime();
+            Future<?> first = executor.submit(() -> {
+                service.storeChunk(upload, 0, chunk(file, upload, 0));
+                return null;
+            });
+            Future<?> second = executor.submit(() -> {
+                service.storeChunk(upload, 1, chunk(file, upload, 1));
+                return null;
+            });
+            first.get();
+            second.get();
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            // the first 64 KB are the burst
+            long expectedMs = (file.length - UploadSpeedLimiters.PACING_BURST) * 1000L / SPEED_LIMITION;
+            Assert.assertTrue("elapsed " + elapsedMs + " ms", elapsedMs >= expectedMs * 0.9);
+            Assert.assertTrue(upload.isComplete());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static UploadSpeedLimiters newUploadSpeedLimiters() {
+        UploadSpeedLimitProperties properties = new UploadSpeedLimitProperties();
+        properties.setUploadSpeedLimit(SPEED_LIMITION);
+        return new UploadSpeedLimiters(properties);
+    }
+
+    private static byte[] newContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    private static InputStream chunk(byte[] file, ChunkedUpload upload, int index) {
+        return new ByteArrayInputStream(file, (int) upload.getChunkOffset(index), upload.getChunkLength(index));
+    }
+}
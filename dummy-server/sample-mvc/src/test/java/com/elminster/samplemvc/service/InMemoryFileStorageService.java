@@ -0,0 +1,104 @@
+package com.elminster.samplemvc.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Keeps the stored files and the gathered chunks in memory, for the tests of the services above the storage.
+ * {@link #load(String)} copies the file to a temp file deleted on exit.
+ */
+public class InMemoryFileStorageService implements FileStorageService {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final Map<String, byte[]> chunks = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+    /**
+     * @param name the name the file was stored as
+     * @return the content of the file, null if there is no such file
+     */
+    public byte[] getFile(String name) {
+        return files.get(name);
+    }
+
+    @Override
+    public void store(MultipartFile file) throws IOException {
+        files.put(file.getName(), file.getBytes());
+    }
+
+    @Override
+    public long store(String name, InputStream content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        files.put(name, out.toByteArray());
+        return out.size();
+    }
+
+    @Override
+    public long storeChunk(String upload, long position, InputStream content) throws IOException {
+        // created by an empty chunk too
+        chunks.putIfAbsent(upload, new byte[0]);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long stored = 0;
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            stored += storeChunk(upload, position + stored, ByteBuffer.wrap(buffer, 0, read));
+        }
+        return stored;
+    }
+
+    @Override
+    public long storeChunk(String upload, long position, ByteBuffer content) throws IOException {
+        int offset = (int) position;
+        int read = content.remaining();
+        synchronized (chunks) {
+            byte[] file = chunks.getOrDefault(upload, new byte[0]);
+            if (file.length < offset + read) {
+                file = Arrays.copyOf(file, offset + read);
+            }
+            content.get(file, offset, read);
+            chunks.put(upload, file);
+        }
+        return read;
+    }
+
+    @Override
+    public void completeChunks(String upload, String name) throws IOException {
+        byte[] file = chunks.remove(upload);
+        if (null == file) {
+            throw new NoSuchFileException(upload);
+        }
+        files.put(name, file);
+    }
+
+    @Override
+    public void abortChunks(String upload) {
+        chunks.remove(upload);
+    }
+
+    @Override
+    public Path load(String name) throws IOException {
+        byte[] file = files.get(name);
+        if (null == file) {
+            throw new NoSuchFileException(name);
+        }
+        Path path = Files.createTempFile("stored-", ".tmp");
+        path.toFile().deleteOnExit();
+        return Files.write(path, file);
+    }
+}
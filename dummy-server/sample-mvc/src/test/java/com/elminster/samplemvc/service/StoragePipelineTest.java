@@ -0,0 +1,182 @@
+package com.elminster.samplemvc.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StoragePipelineTest {
+
+    private static final int CHUNK_SIZE = StoragePipeline.CHUNK_SIZE;
+
+    @Test
+    public void testPartsAreStoredWhole() throws Exception {
+        InMemoryFileStorageService storage = new InMemoryFileStorageService();
+        try (StoragePipeline pipeline = new StoragePipeline(storage, 4);
+                StoragePipeline.Batch batch = pipeline.newBatch()) {
+            byte[][] parts = { new byte[0], newContent(CHUNK_SIZE), newContent(CHUNK_SIZE * 20 + 1) };
+            long total = 0;
+            for (int i = 0; i < parts.length; i++) {
+                batch.store("part" + i, new ByteArrayInputStream(parts[i]));
+                total += parts[i].length;
+            }
+            // nothing is stored under its name before the request is read
+            Assert.assertNull(storage.getFile("part2"));
+            Assert.assertEquals(total, batch.complete());
+            for (int i = 0; i < parts.length; i++) {
+                Assert.assertArrayEquals(parts[i], storage.getFile("part" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testSlowUploadHoldsNoStorageThread() throws Exception {
+        InMemoryFileStorageService storage = new InMemoryFileStorageService();
+        ExecutorService requests = Executors.newSingleThreadExecutor();
+        CountDownLatch resume = new CountDownLatch(1);
+        try (StoragePipeline pipeline = new StoragePipeline(storage, 1)) {
+            byte[] slow = newContent(CHUNK_SIZE * 3);
+            // one chunk arrives, then the client stalls in the middle of the part
+            InputStream stalling = new SequenceInputStream(new ByteArrayInputStream(slow, 0, CHUNK_SIZE),
+                    new InputStream() {
+                        private final InputStream rest = new ByteArrayInputStream(slow, CHUNK_SIZE,
+                                slow.length - CHUNK_SIZE);
+
+                        @Override
+                        public int read() throws IOException {
+                            await(resume);
+                            return rest.read();
+                        }
+
+                        @Override
+                        public int read(byte[] b, int off, int len) throws IOException {
+                            await(resume);
+                            return rest.read(b, off, len);
+                        }
+                    });
+            Future<Long> slowUpload = requests.submit(() -> {
+                try (StoragePipeline.Batch batch = pipeline.newBatch()) {
+                    batch.store("slow", stalling);
+                    return batch.complete();
+                }
+            });
+
+            // the only storage thread serves another upload meanwhile
+            byte[] fast = newContent(CHUNK_SIZE * 2);
+            try (StoragePipeline.Batch batch = pipeline.newBatch()) {
+                batch.store("fast", new ByteArrayInputStream(fast));
+                Assert.assertEquals(fast.length, batch.complete());
+            }
+            Assert.assertArrayEquals(fast, storage.getFile("fast"));
+            Assert.assertFalse(slowUpload.isDone());
+
+            resume.countDown();
+            Assert.assertEquals(slow.length, slowUpload.get(5, TimeUnit.SECONDS).longValue());
+            Assert.assertArrayEquals(slow, storage.getFile("slow"));
+        } finally {
+            resume.countDown();
+            requests.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStorageFailureDropsTheParts() throws Exception {
+        InMemoryFileStorageService storage = new InMemoryFileStorageService() {
+            @Override
+            public long storeChunk(String upload, long position, ByteBuffer content) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        try (StoragePipeline pipeline = new StoragePipeline(storage, 2)) {
+            StoragePipeline.Batch batch = pipeline.newBatch();
+            try {
+                batch.store("fail", new ByteArrayInputStream(newContent(CHUNK_SIZE * 4)));
+                batch.complete();
+                Assert.fail("stored past a failed storage");
+            } catch (IOException e) {
+                Assert.assertEquals("disk full", e.getMessage());
+            } finally {
+                batch.close();
+            }
+            Assert.assertNull(storage.getFile("fail"));
+        }
+    }
+
+    @Test
+    public void testSlowStorageBlocksAllRequests() throws Exception {
+        CountDownLatch resume = new CountDownLatch(1);
+        InMemoryFileStorageService storage = new InMemoryFileStorageService() {
+            @Override
+            public long storeChunk(String upload, long position, ByteBuffer content) throws IOException {
+                await(resume);
+                return super.storeChunk(upload, position, content);
+            }
+        };
+        ExecutorService requests = Executors.newSingleThreadExecutor();
+        List<StoragePipeline.Batch> batches = new ArrayList<>();
+        try (StoragePipeline pipeline = new StoragePipeline(storage, 1)) {
+            // each request queues its share, together they fill the queue of the pipeline
+            for (int i = 0; i < StoragePipeline.MAX_QUEUED_CHUNKS / StoragePipeline.QUEUED_CHUNKS; i++) {
+                StoragePipeline.Batch batch = pipeline.newBatch();
+                batches.add(batch);
+                byte[] part = newContent(CHUNK_SIZE * StoragePipeline.QUEUED_CHUNKS - 1);
+                batch.store("part" + i, new ByteArrayInputStream(part));
+            }
+            Future<Long> blocked = requests.submit(() -> {
+                try (StoragePipeline.Batch batch = pipeline.newBatch()) {
+                    batch.store("blocked", new ByteArrayInputStream(newContent(1)));
+                    return batch.complete();
+                }
+            });
+            try {
+                blocked.get(200, TimeUnit.MILLISECONDS);
+                Assert.fail("queued past the bound of the pipeline");
+            } catch (TimeoutException e) {
+                // expected
+            }
+
+            resume.countDown();
+            Assert.assertEquals(1, blocked.get(5, TimeUnit.SECONDS).longValue());
+            for (StoragePipeline.Batch batch : batches) {
+                Assert.assertEquals(CHUNK_SIZE * StoragePipeline.QUEUED_CHUNKS - 1, batch.complete());
+            }
+        } finally {
+            resume.countDown();
+            for (StoragePipeline.Batch batch : batches) {
+                batch.close();
+            }
+            requests.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IOException("client never resumed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] newContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+}
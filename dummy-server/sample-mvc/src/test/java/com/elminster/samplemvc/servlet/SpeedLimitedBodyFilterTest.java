@@ -0,0 +1,99 @@
+package com.elminster.samplemvc.servlet;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.ServletRequest;
+
+import com.elminster.samplemvc.download.DownloadSpeedLimiters;
+import com.elminster.samplemvc.upload.UploadSpeedLimitProperties;
+import com.elminster.samplemvc.upload.UploadSpeedLimiters;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class SpeedLimitedBodyFilterTest {
+
+    private static final int SPEED_LIMITION = 50 * 1024; // 50 KB/s
+    private static final int BODY_SIZE = 100 * 1024;
+
+    @Test
+    public void testOtherRoutesPassThrough() throws Exception {
+        SpeedLimitedBodyFilter filter = newFilter(newUploadSpeedLimiters());
+        MockHttpServletRequest request = newRequest("/v1/ping");
+        AtomicReference<ServletRequest> filtered = new AtomicReference<>();
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> filtered.set(req));
+        Assert.assertSame(request, filtered.get());
+    }
+
+    @Test
+    public void testRequestBodyIsThrottled() throws Exception {
+        UploadSpeedLimiters uploadSpeedLimiters = newUploadSpeedLimiters();
+        SpeedLimitedBodyFilter filter = newFilter(uploadSpeedLimiters);
+        MockHttpServletRequest request = newRequest("/v1/raw-upload/a.bin");
+        request.setContent(new byte[BODY_SIZE]);
+        AtomicLong read = new AtomicLong();
+        long start = System.nanoTime();
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> {
+            try (InputStream in = req.getInputStream()) {
+                byte[] buffer = new byte[8 * 1024];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    read.addAndGet(n);
+                }
+            }
+        });
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        // the first 64 KB are the burst
+        long expectedMs = (BODY_SIZE - UploadSpeedLimiters.PACING_BURST) * 1000L / SPEED_LIMITION;
+        Assert.assertEquals(BODY_SIZE, read.get());
+        Assert.assertTrue("elapsed " + elapsedMs + " ms", elapsedMs >= expectedMs * 0.9);
+        // the upload limiter is closed with the request
+        Assert.assertEquals(0, uploadSpeedLimiters.getActiveUploadCount());
+    }
+
+    @Test
+    public void testResponseBodyIsThrottled() throws Exception {
+        SpeedLimitedBodyFilter filter = newFilter(newUploadSpeedLimiters());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        long start = System.nanoTime();
+        filter.doFilter(newRequest("/v1/files/a.bin"), response, (req, res) -> {
+            OutputStream out = res.getOutputStream();
+            byte[] chunk = new byte[1024];
+            for (int i = 0; i < BODY_SIZE / chunk.length; i++) {
+                out.write(chunk);
+            }
+            // left in the batch of the throttled stream until the end of the request
+            out.write(1);
+        });
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        long expectedMs = (BODY_SIZE - UploadSpeedLimiters.PACING_BURST) * 1000L / SPEED_LIMITION;
+        Assert.assertEquals(BODY_SIZE + 1, response.getContentAsByteArray().length);
+        Assert.assertTrue("elapsed " + elapsedMs + " ms", elapsedMs >= expectedMs * 0.9);
+    }
+
+    private static SpeedLimitedBodyFilter newFilter(UploadSpeedLimiters uploadSpeedLimiters) {
+        SpeedLimitedBodyProperties properties = new SpeedLimitedBodyProperties();
+        properties.setRequestPaths(Collections.singletonList("/v1/raw-upload/**"));
+        properties.setResponsePaths(Collections.singletonList("/v1/files/**"));
+        return new SpeedLimitedBodyFilter(uploadSpeedLimiters,
+                new DownloadSpeedLimiters(DownloadSpeedLimiters.SERVER_SPEED_LIMIT, SPEED_LIMITION), properties);
+    }
+
+    private static UploadSpeedLimiters newUploadSpeedLimiters() {
+        UploadSpeedLimitProperties properties = new UploadSpeedLimitProperties();
+        properties.setUploadSpeedLimit(SPEED_LIMITION);
+        return new UploadSpeedLimiters(properties);
+    }
+
+    private static MockHttpServletRequest newRequest(String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT", path);
+        request.setServletPath(path);
+        return request;
+    }
+}
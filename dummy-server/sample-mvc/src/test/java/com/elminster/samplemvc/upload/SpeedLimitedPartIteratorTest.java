@@ -0,0 +1,74 @@
+package com.elminster.samplemvc.upload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.elminster.poc.SpeedLimiter;
+
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class SpeedLimitedPartIteratorTest {
+
+    private static final String BOUNDARY = "boundary";
+    private static final int SPEED_LIMIT = 10 * 1024 * 1024; // 10 MB/s
+
+    @Test
+    public void testUnreadPartIsSkippedUnderItsLimiter() throws Exception {
+        String unread = newContent(64 * 1024);
+        MockHttpServletRequest request = newMultipartRequest(unread, "second");
+        List<SpeedLimiter> limiters = new ArrayList<>();
+        try (SpeedLimitedPartIterator parts = new SpeedLimitedPartIterator(
+                new ServletFileUpload().getItemIterator(request), () -> {
+                    SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMIT);
+                    limiters.add(limiter);
+                    return limiter;
+                })) {
+            parts.next();
+            SpeedLimitedPart second = parts.next();
+            try (InputStream in = second.openStream()) {
+                Assert.assertEquals("second", new String(readAll(in), StandardCharsets.ISO_8859_1));
+            }
+            Assert.assertFalse(parts.hasNext());
+        }
+        Assert.assertEquals(unread.length(), limiters.get(0).getGrantedBytes());
+    }
+
+    private static String newContent(int size) {
+        StringBuilder content = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            content.append((char) ('a' + i % 26));
+        }
+        return content.toString();
+    }
+
+    private static MockHttpServletRequest newMultipartRequest(String... contents) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < contents.length; i++) {
+            body.append("--").append(BOUNDARY).append("\r\n")
+                    .append("Content-Disposition: form-data; name=\"file\"; filename=\"part").append(i).append("\"\r\n")
+                    .append("Content-Type: application/octet-stream\r\n\r\n")
+                    .append(contents[i]).append("\r\n");
+        }
+        body.append("--").append(BOUNDARY).append("--\r\n");
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/");
+        request.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+        request.setContent(body.toString().getBytes(StandardCharsets.ISO_8859_1));
+        return request;
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,112 @@
+package com.elminster.samplemvc.upload;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.elminster.poc.AdaptiveSpeedController;
+import com.elminster.poc.SpeedLimiter;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class UploadSpeedLimitersTest {
+
+    @Test
+    public void testFirstMatchingPolicyApplies() {
+        UploadSpeedLimiters speedLimiters = new UploadSpeedLimiters(newProperties());
+        Assert.assertEquals("internal", speedLimiters.resolvePolicy(newRequest("10.1.2.3", null)).getName());
+        Assert.assertEquals("alice", speedLimiters.resolvePolicy(newRequest("8.8.8.8", "alice")).getName());
+        Assert.assertEquals(UploadPolicy.DEFAULT, speedLimiters.resolvePolicy(newRequest("8.8.8.8", "bob")).getName());
+        Assert.assertEquals(UploadPolicy.DEFAULT, speedLimiters.resolvePolicy(newRequest("::1", null)).getName());
+
+        MockHttpServletRequest bulk = newRequest("8.8.8.8", null);
+        bulk.addHeader("X-Upload-Class", "bulk");
+        Assert.assertEquals("bulk", speedLimiters.resolvePolicy(bulk).getName());
+        bulk.setServletPath("/other");
+        Assert.assertEquals(UploadPolicy.DEFAULT, speedLimiters.resolvePolicy(bulk).getName());
+    }
+
+    @Test
+    public void testClientLimiterIsSharedPerPolicy() throws Exception {
+        UploadSpeedLimiters speedLimiters = new UploadSpeedLimiters(newProperties());
+        MockHttpServletRequest request = newRequest("10.1.2.3", null);
+        try (SpeedLimiter first = speedLimiters.newUploadLimiter(request);
+                SpeedLimiter second = speedLimiters.newUploadLimiter(request)) {
+            Assert.assertSame(first.getParent(), second.getParent());
+            Assert.assertEquals(20 * 1024, first.getParent().getMaxSpeedInBytesPerSec());
+            Assert.assertEquals(10 * 1024, first.getMaxSpeedInBytesPerSec());
+            Assert.assertSame(first.getParent(), speedLimiters.getLimiters().get("client:internal/ip:10.1.2.3"));
+
+            Assert.assertEquals(2, speedLimiters.setClientUploadSpeedLimit("ip:10.1.2.3", 5 * 1024));
+            Assert.assertEquals(5 * 1024, second.getMaxSpeedInBytesPerSec());
+        }
+    }
+
+    @Test
+    public void testBulkUploadsYieldToTheOthers() throws Exception {
+        UploadSpeedLimitProperties properties = newProperties();
+        // below the client limits
+        properties.setServerSpeedLimit(1024 * 1024);
+        UploadSpeedLimiters speedLimiters = new UploadSpeedLimiters(properties);
+        MockHttpServletRequest request = newRequest("8.8.8.8", null);
+        MockHttpServletRequest bulkRequest = newRequest("8.8.4.4", null);
+        bulkRequest.addHeader("X-Upload-Class", "bulk");
+        try (SpeedLimiter upload = speedLimiters.newUploadLimiter(request);
+                SpeedLimiter bulk = speedLimiters.newUploadLimiter(bulkRequest)) {
+            Assert.assertEquals(SpeedLimiter.Priority.BULK, bulk.getPriority());
+            Assert.assertEquals(SpeedLimiter.Priority.BULK, bulk.getParent().getPriority());
+            Assert.assertEquals(SpeedLimiter.Priority.NORMAL, upload.getParent().getPriority());
+
+            upload.acquire(1);
+            bulk.acquire(1);
+            // NORMAL 4 to BULK 1
+            Assert.assertEquals(1024 * 1024 / 5, bulk.getParent().getEffectiveSpeedInBytesPerSec(), 1);
+        }
+    }
+
+    @Test
+    public void testServerLimitSetByHandCapsTheAdaptation() throws Exception {
+        UploadSpeedLimitProperties properties = newProperties();
+        properties.getAdaptive().setEnabled(true);
+        try (UploadSpeedLimiters speedLimiters = new UploadSpeedLimiters(properties)) {
+            AdaptiveSpeedController controller = speedLimiters.getAdaptiveController();
+            Assert.assertEquals(1, speedLimiters.setSpeedLimit(UploadSpeedLimiters.SERVER, 5 * 1024 * 1024));
+            Assert.assertEquals(5 * 1024 * 1024, controller.getMaxSpeedInBytesPerSec());
+            Assert.assertEquals(5 * 1024 * 1024,
+                    speedLimiters.getLimiters().get(UploadSpeedLimiters.SERVER).getMaxSpeedInBytesPerSec());
+
+            speedLimiters.setSpeedLimit(UploadSpeedLimiters.SERVER, SpeedLimiter.UNLIMITED);
+            Assert.assertEquals(properties.getAdaptive().getMaxSpeedLimit(), controller.getMaxSpeedInBytesPerSec());
+        }
+    }
+
+    private UploadSpeedLimitProperties newProperties() {
+        UploadSpeedLimitProperties.Policy internal = new UploadSpeedLimitProperties.Policy();
+        internal.setName("internal");
+        internal.setCidrs(Arrays.asList("10.0.0.0/8", "192.168.1.0/25"));
+        internal.setClientSpeedLimit(20 * 1024L);
+        internal.setUploadSpeedLimit(10 * 1024L);
+        UploadSpeedLimitProperties.Policy alice = new UploadSpeedLimitProperties.Policy();
+        alice.setName("alice");
+        alice.setPrincipals(Collections.singletonList("alice"));
+        UploadSpeedLimitProperties.Policy bulk = new UploadSpeedLimitProperties.Policy();
+        bulk.setName("bulk");
+        bulk.setHeaders(Collections.singletonMap("X-Upload-Class", "bulk"));
+        bulk.setPaths(Collections.singletonList("/v1/**"));
+        bulk.setPriority(SpeedLimiter.Priority.BULK);
+        UploadSpeedLimitProperties properties = new UploadSpeedLimitProperties();
+        properties.setPolicies(Arrays.asList(internal, alice, bulk));
+        return properties;
+    }
+
+    private MockHttpServletRequest newRequest(String remoteAddr, String principal) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/v1/upload");
+        request.setServletPath("/v1/upload");
+        request.setRemoteAddr(remoteAddr);
+        if (null != principal) {
+            request.setUserPrincipal(() -> principal);
+        }
+        return request;
+    }
+}
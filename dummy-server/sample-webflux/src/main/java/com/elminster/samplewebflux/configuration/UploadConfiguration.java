@@ -0,0 +1,27 @@
+package com.elminster.samplewebflux.configuration;
+
+import com.elminster.samplewebflux.controller.TestController;
+import com.elminster.samplewebflux.upload.SpeedLimitedUploadFilter;
+import com.elminster.samplewebflux.upload.UploadSpeedLimiters;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.ServerCodecConfigurer;
+
+@Configuration
+public class UploadConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public UploadSpeedLimiters uploadSpeedLimiters(
+            @Value("${sample.upload.server-speed-limit:" + UploadSpeedLimiters.SERVER_SPEED_LIMIT + "}") long serverSpeedLimit,
+            @Value("${sample.upload.upload-speed-limit:" + UploadSpeedLimiters.UPLOAD_SPEED_LIMIT + "}") long uploadSpeedLimit) {
+        return new UploadSpeedLimiters(serverSpeedLimit, uploadSpeedLimit);
+    }
+
+    @Bean
+    public SpeedLimitedUploadFilter speedLimitedUploadFilter(UploadSpeedLimiters uploadSpeedLimiters,
+            ServerCodecConfigurer serverCodecConfigurer) {
+        return new SpeedLimitedUploadFilter(uploadSpeedLimiters, serverCodecConfigurer, TestController.UPLOAD_PATH);
+    }
+}
@@ -0,0 +1,41 @@
+package com.elminster.samplewebflux.controller;
+
+import com.elminster.samplewebflux.service.FileStorageService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestPart;
+
+import reactor.core.publisher.Mono;
+
+@Controller
+@RequestMapping("/v1")
+public class TestController {
+
+    /**
+     * the request body is throttled by the {@link com.elminster.samplewebflux.upload.SpeedLimitedUploadFilter}.
+     */
+    public static final String UPLOAD_PATH = "/v1/upload";
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @GetMapping("/ping")
+    public ResponseEntity<?> ping() {
+        return new ResponseEntity<String>("ok", HttpStatus.OK);
+    }
+
+    @PostMapping(path = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Mono<ResponseEntity<String>> upload(@RequestPart("file") Mono<FilePart> file) {
+        return file.flatMap(fileStorageService::store)
+                .then(Mono.just(new ResponseEntity<>("received", HttpStatus.OK)))
+                .onErrorResume(e -> Mono.just(new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR)));
+    }
+}
@@ -0,0 +1,15 @@
+package com.elminster.samplewebflux.service;
+
+import org.springframework.http.codec.multipart.FilePart;
+
+import reactor.core.publisher.Mono;
+
+public interface FileStorageService {
+
+    /**
+     * Store the part under its name, a file stored before under the same name is replaced.
+     * @param file the part
+     * @return completes once the part is stored
+     */
+    public Mono<Void> store(FilePart file);
+}
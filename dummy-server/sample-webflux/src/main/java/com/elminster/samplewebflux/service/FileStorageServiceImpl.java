@@ -0,0 +1,36 @@
+package com.elminster.samplewebflux.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.Mono;
+
+@Service
+public class FileStorageServiceImpl implements FileStorageService {
+
+    @Value("${sample.storage.dir:C:/Upload/}")
+    private String storageDir;
+
+    @Override
+    public Mono<Void> store(FilePart file) {
+        String fileName = file.name();
+        // written to a unique name first, so concurrent uploads of the same name do not mix
+        File part = new File(storageDir, fileName + "." + UUID.randomUUID() + ".part");
+        return file.transferTo(part).then(Mono.fromRunnable(() -> {
+            try {
+                Files.move(part.toPath(), Paths.get(storageDir, fileName), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+    }
+}
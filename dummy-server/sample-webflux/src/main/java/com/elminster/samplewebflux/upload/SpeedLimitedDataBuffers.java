@@ -0,0 +1,30 @@
+package com.elminster.samplewebflux.upload;
+
+import com.elminster.poc.SpeedLimitedPublisher;
+import com.elminster.poc.SpeedLimiter;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Throttle the {@link DataBuffer}s of a WebFlux body, see {@link SpeedLimitedPublisher}.
+ */
+public final class SpeedLimitedDataBuffers {
+
+    private SpeedLimitedDataBuffers() {
+    }
+
+    /**
+     * @param buffers the buffers, e.g. the body of a request
+     * @param limiter the limiter, closed once the buffers are done
+     * @return the buffers, the next one is read once the limiter granted the previous one;
+     * the buffers arriving after a cancel are released
+     */
+    public static Flux<DataBuffer> throttle(Publisher<? extends DataBuffer> buffers, SpeedLimiter limiter) {
+        return Flux.from(new SpeedLimitedPublisher<DataBuffer>(buffers, limiter,
+                DataBuffer::readableByteCount, DataBufferUtils::release));
+    }
+}
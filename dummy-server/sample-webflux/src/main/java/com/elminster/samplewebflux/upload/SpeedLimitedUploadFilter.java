@@ -0,0 +1,101 @@
+package com.elminster.samplewebflux.upload;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.elminster.poc.SpeedLimiter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.HttpMessageReader;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebExchangeDecorator;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Throttle the request body of the uploads before the multipart reader parses it: the next buffer of the body is
+ * only read once the limiter granted the previous one.
+ */
+public class SpeedLimitedUploadFilter implements WebFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpeedLimitedUploadFilter.class);
+
+    private static final ResolvableType MULTIPART_DATA_TYPE =
+            ResolvableType.forClassWithGenerics(MultiValueMap.class, String.class, Part.class);
+
+    private final UploadSpeedLimiters speedLimiters;
+    private final HttpMessageReader<MultiValueMap<String, Part>> multipartReader;
+    private final Set<String> paths;
+
+    /**
+     * @param speedLimiters the limiters
+     * @param codecConfigurer the codecs, for the multipart reader
+     * @param paths the paths of the uploads
+     */
+    @SuppressWarnings("unchecked")
+    public SpeedLimitedUploadFilter(UploadSpeedLimiters speedLimiters, ServerCodecConfigurer codecConfigurer,
+            String... paths) {
+        this.speedLimiters = speedLimiters;
+        this.multipartReader = (HttpMessageReader<MultiValueMap<String, Part>>) codecConfigurer.getReaders().stream()
+                .filter(reader -> reader.canRead(MULTIPART_DATA_TYPE, MediaType.MULTIPART_FORM_DATA))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Multipart Reader can NOT be null."));
+        this.paths = new HashSet<>(Arrays.asList(paths));
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (HttpMethod.POST != request.getMethod() || !paths.contains(request.getPath().pathWithinApplication().value())) {
+            return chain.filter(exchange);
+        }
+        SpeedLimiter limiter = speedLimiters.newUploadLimiter();
+        ServerHttpRequest throttled = new ServerHttpRequestDecorator(request) {
+            @Override
+            public Flux<DataBuffer> getBody() {
+                return SpeedLimitedDataBuffers.throttle(super.getBody(), limiter);
+            }
+        };
+        Mono<MultiValueMap<String, Part>> multipartData = multipartReader
+                .readMono(MULTIPART_DATA_TYPE, throttled, Collections.emptyMap())
+                .cache();
+        ServerWebExchange throttledExchange = new ServerWebExchangeDecorator(exchange) {
+            @Override
+            public ServerHttpRequest getRequest() {
+                return throttled;
+            }
+
+            @Override
+            public Mono<MultiValueMap<String, Part>> getMultipartData() {
+                return MediaType.MULTIPART_FORM_DATA.isCompatibleWith(throttled.getHeaders().getContentType())
+                        ? multipartData : super.getMultipartData();
+            }
+        };
+        // the body may never be read, e.g. on a bad request
+        return chain.filter(throttledExchange).doFinally(signal -> close(limiter));
+    }
+
+    private static void close(SpeedLimiter limiter) {
+        try {
+            limiter.close();
+        } catch (IOException e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.elminster.samplewebflux.upload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.elminster.poc.SpeedLimiter;
+
+/**
+ * The paced limiters of the uploads: one server limiter, with a child limiter per upload.
+ */
+public class UploadSpeedLimiters implements Closeable {
+
+    public static final long SERVER_SPEED_LIMIT = 100 * 1024 * 1024; // 100MB
+    public static final long UPLOAD_SPEED_LIMIT = 1024 * 1024; // 1MB
+    public static final int PACING_BURST = 64 * 1024; // 64KB
+    public static final long PACING_RESOLUTION = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final SpeedLimiter serverLimiter;
+    private final long uploadSpeedLimit;
+
+    public UploadSpeedLimiters() {
+        this(SERVER_SPEED_LIMIT, UPLOAD_SPEED_LIMIT);
+    }
+
+    public UploadSpeedLimiters(long serverSpeedLimit, long uploadSpeedLimit) {
+        this.serverLimiter = new SpeedLimiter(serverSpeedLimit, PACING_BURST, PACING_RESOLUTION);
+        this.uploadSpeedLimit = uploadSpeedLimit;
+    }
+
+    public SpeedLimiter getServerLimiter() {
+        return serverLimiter;
+    }
+
+    /**
+     * @return a limiter for one upload, which shares the server limit with the other uploads
+     */
+    public SpeedLimiter newUploadLimiter() {
+        SpeedLimiter limiter = new SpeedLimiter(uploadSpeedLimit, serverLimiter);
+        limiter.setMaxBurstInBytes(PACING_BURST);
+        limiter.setResolutionInNanos(PACING_RESOLUTION);
+        return limiter;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverLimiter.close();
+    }
+}
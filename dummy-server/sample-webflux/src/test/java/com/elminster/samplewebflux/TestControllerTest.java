@@ -0,0 +1,58 @@
+package com.elminster.samplewebflux;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "sample.upload.upload-speed-limit=102400", "sample.storage.dir=target/upload-test/" })
+public class TestControllerTest {
+
+    private static final int SPEED_LIMITION = 100 * 1024; // 100 KB/s
+    private static final int FILE_SIZE = 200 * 1024;
+
+    @Autowired
+    private WebTestClient webClient;
+
+    @BeforeClass
+    public static void createStorage() throws IOException {
+        Files.createDirectories(Paths.get("target/upload-test"));
+    }
+
+    @Test
+    public void testUploadIsThrottled() throws Exception {
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("file", new ByteArrayResource(new byte[FILE_SIZE]) {
+            @Override
+            public String getFilename() {
+                return "upload.bin";
+            }
+        });
+        long start = System.nanoTime();
+        webClient.mutate().responseTimeout(Duration.ofSeconds(10)).build()
+                .post().uri("/v1/upload")
+                .body(BodyInserters.fromMultipartData(body.build()))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("received");
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        // the first 64 KB are the burst
+        long expectedMs = (FILE_SIZE - 64 * 1024) * 1000L / SPEED_LIMITION;
+        Assert.assertTrue("elapsed " + elapsedMs + " ms", elapsedMs >= expectedMs * 0.9);
+        Assert.assertEquals(FILE_SIZE, Files.size(Paths.get("target/upload-test/file")));
+    }
+}
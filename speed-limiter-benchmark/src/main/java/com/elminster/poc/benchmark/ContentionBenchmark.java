@@ -0,0 +1,100 @@
+package com.elminster.poc.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.elminster.poc.SpeedLimitedInputStream;
+import com.elminster.poc.SpeedLimiter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The cost of a limited {@code read} when many streams, one per JMH thread, share one limiter or each have their own.
+ * Run {@link #main(String[])} to sweep from 1 to 1000 streams,
+ * or {@code java -jar benchmarks.jar Contention -t <streams>}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ContentionBenchmark {
+
+    private static final long NEVER_WAITING_RATE = 100L * 1024 * 1024 * 1024 * 1024; // 100 TB/s, far beyond any thread
+    private static final int BUFFER_SIZE = 8192;
+    private static final int[] STREAMS = {1, 4, 16, 64, 256, 1000};
+
+    @State(Scope.Benchmark)
+    public static class SharedLimiter {
+
+        @Param({"TICK", "LAZY"})
+        public SpeedLimiter.Mode mode;
+
+        @Param({"true", "false"})
+        public boolean shared;
+
+        SpeedLimiter limiter;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            limiter = new SpeedLimiter(NEVER_WAITING_RATE, mode);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            limiter.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Stream {
+
+        SpeedLimiter limiter;
+        SpeedLimitedInputStream in;
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        @Setup(Level.Trial)
+        public void setUp(SharedLimiter shared) {
+            limiter = shared.shared ? shared.limiter : new SpeedLimiter(NEVER_WAITING_RATE, shared.mode);
+            in = new SpeedLimitedInputStream(NullStreams.endlessInput(), limiter);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            limiter.close();
+        }
+    }
+
+    @Benchmark
+    public int read(Stream stream) throws IOException {
+        return stream.in.read(stream.buffer, 0, BUFFER_SIZE);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        for (int streams : STREAMS) {
+            new Runner(new OptionsBuilder()
+                    .parent(commandLine)
+                    .include(ContentionBenchmark.class.getSimpleName())
+                    .threads(streams)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.elminster.poc.benchmark;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Endless source and bottomless sink, so the benchmarks measure the limiter and not the I/O.
+ */
+final class NullStreams {
+
+    private NullStreams() {
+    }
+
+    static InputStream endlessInput() {
+        return new InputStream() {
+            @Override
+            public int read() {
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return len;
+            }
+        };
+    }
+
+    static OutputStream bottomlessOutput() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+    }
+}
@@ -0,0 +1,71 @@
+package com.elminster.poc.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.elminster.poc.SpeedLimitedInputStream;
+import com.elminster.poc.SpeedLimiter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The achieved rate across buffer sizes, reported as the secondary result {@code bytes} in bytes/s, to compare
+ * with the {@code rate} parameter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class RateAccuracyBenchmark {
+
+    @Param({"TICK", "LAZY"})
+    public SpeedLimiter.Mode mode;
+
+    @Param({"1048576", "104857600"})
+    public int rate;
+
+    @Param({"512", "8192", "65536"})
+    public int bufferSize;
+
+    private SpeedLimiter limiter;
+    private SpeedLimitedInputStream in;
+    private byte[] buffer;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Transferred {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        limiter = new SpeedLimiter(rate, mode);
+        in = new SpeedLimitedInputStream(NullStreams.endlessInput(), limiter);
+        buffer = new byte[bufferSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        limiter.close();
+    }
+
+    @Benchmark
+    public void read(Transferred transferred) throws IOException {
+        transferred.bytes += in.read(buffer, 0, buffer.length);
+    }
+}
@@ -0,0 +1,84 @@
+package com.elminster.poc.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.elminster.poc.SpeedLimitedInputStream;
+import com.elminster.poc.SpeedLimitedOutputStream;
+import com.elminster.poc.SpeedLimiter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The accounting cost of one {@code read}/{@code write} call, unlimited and limited at 100 TB/s, which no thread
+ * ever reaches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamOverheadBenchmark {
+
+    private static final long NEVER_WAITING_RATE = 100L * 1024 * 1024 * 1024 * 1024; // 100 TB/s, far beyond any thread
+
+    public enum Limit {
+        UNLIMITED, TICK, LAZY
+    }
+
+    @Param({"UNLIMITED", "TICK", "LAZY"})
+    public Limit limit;
+
+    @Param({"64", "8192"})
+    public int bufferSize;
+
+    private SpeedLimiter limiter;
+    private SpeedLimitedInputStream in;
+    private SpeedLimitedOutputStream out;
+    private byte[] buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (limit) {
+            case TICK:
+                limiter = new SpeedLimiter(NEVER_WAITING_RATE, SpeedLimiter.Mode.TICK);
+                break;
+            case LAZY:
+                limiter = new SpeedLimiter(NEVER_WAITING_RATE, SpeedLimiter.Mode.LAZY);
+                break;
+            default:
+                limiter = new SpeedLimiter();
+        }
+        in = new SpeedLimitedInputStream(NullStreams.endlessInput(), limiter);
+        out = new SpeedLimitedOutputStream(NullStreams.bottomlessOutput(), limiter);
+        buffer = new byte[bufferSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        limiter.close();
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        return in.read(buffer, 0, buffer.length);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        out.write(buffer, 0, buffer.length);
+    }
+}
@@ -0,0 +1,207 @@
+package com.elminster.poc;
+
+import java.io.Closeable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adjusts the rate of a limiter to what the storage behind it sustains (AIMD): every interval the rate is cut while
+ * the writes reported by {@link #recordWrite(long, long)} are slower than the target, and raised while the limiter
+ * is saturated. A limit set by hand with {@link #setMaxSpeedInBytesPerSec(long)} wins, the rate is only cut below it.
+ */
+public class AdaptiveSpeedController implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveSpeedController.class);
+
+    /**
+     * the share of the budget which counts as saturated.
+     */
+    private static final double SATURATION = 0.9;
+
+    private final SpeedLimiter limiter;
+    private final long minSpeedInBytesPerSec;
+    private final long configuredMaxSpeedInBytesPerSec;
+    private volatile long maxSpeedInBytesPerSec;
+    private final long targetLatencyInNanos;
+
+    private volatile long intervalInNanos = TimeUnit.SECONDS.toNanos(1);
+    private volatile double decreaseFactor = 0.7;
+    private volatile long increaseStepInBytesPerSec;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder writtenBytes = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+
+    private long lastGrantedBytes;
+    private long lastAdjustNanos;
+    private volatile ScheduledFuture<?> next;
+    private volatile boolean stop = false;
+
+    /**
+     * @param limiter the limiter in front of the storage, e.g. the server limiter
+     * @param minSpeedInBytesPerSec the rate is never cut below
+     * @param maxSpeedInBytesPerSec the rate is never raised above
+     * @param targetLatencyInNanos the mean write latency the storage should stay below
+     */
+    public AdaptiveSpeedController(SpeedLimiter limiter, long minSpeedInBytesPerSec, long maxSpeedInBytesPerSec,
+            long targetLatencyInNanos) {
+        if (null == limiter) {
+            throw new IllegalArgumentException("Speed Limiter can NOT be null.");
+        }
+        if (minSpeedInBytesPerSec <= 0 || maxSpeedInBytesPerSec < minSpeedInBytesPerSec) {
+            throw new IllegalArgumentException("Min Speed should be greater than 0 and not greater than Max Speed.");
+        }
+        if (targetLatencyInNanos <= 0) {
+            throw new IllegalArgumentException("Target Latency should be greater than 0.");
+        }
+        this.limiter = limiter;
+        this.minSpeedInBytesPerSec = minSpeedInBytesPerSec;
+        this.configuredMaxSpeedInBytesPerSec = maxSpeedInBytesPerSec;
+        this.maxSpeedInBytesPerSec = maxSpeedInBytesPerSec;
+        this.targetLatencyInNanos = targetLatencyInNanos;
+        // reach the max from the min in 20 steps
+        this.increaseStepInBytesPerSec = Math.max(1, (maxSpeedInBytesPerSec - minSpeedInBytesPerSec) / 20);
+    }
+
+    public void setIntervalInNanos(long intervalInNanos) {
+        if (intervalInNanos <= 0) {
+            throw new IllegalArgumentException("Interval should be greater than 0.");
+        }
+        this.intervalInNanos = intervalInNanos;
+    }
+
+    public void setDecreaseFactor(double decreaseFactor) {
+        if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+            throw new IllegalArgumentException("Decrease Factor should be between 0 and 1.");
+        }
+        this.decreaseFactor = decreaseFactor;
+    }
+
+    public void setIncreaseStepInBytesPerSec(long increaseStepInBytesPerSec) {
+        if (increaseStepInBytesPerSec <= 0) {
+            throw new IllegalArgumentException("Increase Step should be greater than 0.");
+        }
+        this.increaseStepInBytesPerSec = increaseStepInBytesPerSec;
+    }
+
+    public SpeedLimiter getLimiter() {
+        return limiter;
+    }
+
+    public long getMaxSpeedInBytesPerSec() {
+        return maxSpeedInBytesPerSec;
+    }
+
+    /**
+     * Override the limit of the limiter by hand, e.g. during an incident: the rate is set at once and
+     * the controller no longer raises it above, it may still cut it while the storage is slow.
+     * @param maxSpeedInBytesPerSec the new max speed, or {@link SpeedLimiter#UNLIMITED} for the max speed
+     *        the controller was created with
+     */
+    public synchronized void setMaxSpeedInBytesPerSec(long maxSpeedInBytesPerSec) {
+        if (maxSpeedInBytesPerSec <= 0 && SpeedLimiter.UNLIMITED != maxSpeedInBytesPerSec) {
+            throw new IllegalArgumentException("Max Speed should be greater than 0.");
+        }
+        this.maxSpeedInBytesPerSec = SpeedLimiter.UNLIMITED == maxSpeedInBytesPerSec
+                ? configuredMaxSpeedInBytesPerSec : maxSpeedInBytesPerSec;
+        setSpeed(this.maxSpeedInBytesPerSec);
+    }
+
+    /**
+     * Report a write to the storage, cheap enough to be called for every write.
+     * @param bytes the bytes written
+     * @param latencyInNanos how long the write took
+     */
+    public void recordWrite(long bytes, long latencyInNanos) {
+        writes.increment();
+        writtenBytes.add(bytes);
+        writeNanos.add(latencyInNanos);
+    }
+
+    /**
+     * Start adjusting the rate every interval, on the {@link SpeedLimiterScheduler} thread.
+     * The rate starts at the current rate of the limiter, clamped to the bounds.
+     */
+    public void start() {
+        setSpeed(clamp(currentSpeed()));
+        lastGrantedBytes = limiter.getGrantedBytes();
+        lastAdjustNanos = System.nanoTime();
+        scheduleNext();
+    }
+
+    private void scheduleNext() {
+        if (!stop) {
+            next = SpeedLimiterScheduler.getInstance().schedule(this::run, intervalInNanos);
+        }
+    }
+
+    private void run() {
+        try {
+            adjust();
+        } catch (RuntimeException e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Adjust the rate to the writes reported since the last adjustment.
+     * @return the new rate in bytes per second
+     */
+    synchronized long adjust() {
+        long now = System.nanoTime();
+        long elapsed = Math.max(1, now - lastAdjustNanos);
+        long granted = limiter.getGrantedBytes();
+        long grantedInInterval = granted - lastGrantedBytes;
+        lastAdjustNanos = now;
+        lastGrantedBytes = granted;
+        long count = writes.sumThenReset();
+        long nanos = writeNanos.sumThenReset();
+        long written = writtenBytes.sumThenReset();
+
+        long speed = currentSpeed();
+        long newSpeed = speed;
+        if (count > 0 && nanos / count > targetLatencyInNanos) {
+            newSpeed = clamp((long) (speed * decreaseFactor));
+        } else if (grantedInInterval >= speed * SATURATION * elapsed / TimeUnit.SECONDS.toNanos(1)) {
+            newSpeed = clamp(speed + increaseStepInBytesPerSec);
+        }
+        if (newSpeed != speed) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("adjust the speed from [{}] to [{}] bytes/s, written [{}] bytes, mean write latency [{}] ns",
+                        speed, newSpeed, written, count > 0 ? nanos / count : 0);
+            }
+            setSpeed(newSpeed);
+        }
+        return newSpeed;
+    }
+
+    private long currentSpeed() {
+        long speed = limiter.getMaxSpeedInBytesPerSec();
+        return SpeedLimiter.UNLIMITED == speed ? maxSpeedInBytesPerSec : speed;
+    }
+
+    private void setSpeed(long speed) {
+        limiter.setMaxSpeedInBytesPerSec(speed);
+    }
+
+    private long clamp(long speed) {
+        long max = maxSpeedInBytesPerSec;
+        // a max set by hand may be below the min
+        return Math.max(Math.min(minSpeedInBytesPerSec, max), Math.min(max, speed));
+    }
+
+    @Override
+    public void close() {
+        stop = true;
+        ScheduledFuture<?> scheduled = next;
+        if (null != scheduled) {
+            scheduled.cancel(false);
+        }
+    }
+}
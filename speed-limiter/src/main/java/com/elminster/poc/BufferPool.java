@@ -0,0 +1,207 @@
+package com.elminster.poc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of heap and direct copy buffers in power of two sizes, so long running throttled copies reuse
+ * their buffers. A buffer must not be used once released, nor released twice.
+ */
+public class BufferPool {
+
+    public static final int MIN_BUFFER_SIZE = 4 * 1024; // 4KB
+    public static final int MAX_BUFFER_SIZE = 1024 * 1024; // 1MB
+    public static final long MAX_POOLED_BYTES = 32 * 1024 * 1024; // 32MB
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SHIFT + 1;
+
+    private static final BufferPool DEFAULT = new BufferPool(MAX_POOLED_BYTES);
+
+    private final Pool<byte[]> heap;
+    private final Pool<ByteBuffer> direct;
+
+    /**
+     * @param maxPooledBytes the max bytes kept by each kind of buffers
+     */
+    public BufferPool(long maxPooledBytes) {
+        if (maxPooledBytes < 0) {
+            throw new IllegalArgumentException("max pooled bytes must not be negative");
+        }
+        this.heap = new Pool<byte[]>(maxPooledBytes) {
+            @Override
+            byte[] allocate(int size) {
+                return new byte[size];
+            }
+
+            @Override
+            int capacity(byte[] buffer) {
+                return buffer.length;
+            }
+        };
+        this.direct = new Pool<ByteBuffer>(maxPooledBytes) {
+            @Override
+            ByteBuffer allocate(int size) {
+                return ByteBuffer.allocateDirect(size);
+            }
+
+            @Override
+            int capacity(ByteBuffer buffer) {
+                return buffer.capacity();
+            }
+        };
+    }
+
+    /**
+     * @return the pool shared by the copy utilities of the library
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * The size of the copy buffer of a limiter: one burst, i.e. the bytes granted at once,
+     * so one buffer is read or written per grant.
+     * @param speedLimiter the limiter
+     * @param maxSize the size to stop at, e.g. for an unlimited limiter
+     * @return the size, between {@link #MIN_BUFFER_SIZE} and the max size
+     */
+    public static int getBufferSize(SpeedLimiter speedLimiter, int maxSize) {
+        return Math.max(MIN_BUFFER_SIZE, Math.min(speedLimiter.getMaxBurstInBytes(), maxSize));
+    }
+
+    /**
+     * @param size the min size
+     * @return a heap buffer of at least the size, to be released once done
+     */
+    public byte[] leaseArray(int size) {
+        return heap.lease(size);
+    }
+
+    /**
+     * @param buffer a buffer leased from this pool
+     */
+    public void release(byte[] buffer) {
+        heap.release(buffer);
+    }
+
+    /**
+     * @param size the min size
+     * @return a cleared direct buffer of at least the size, to be released once done
+     */
+    public ByteBuffer leaseDirect(int size) {
+        ByteBuffer buffer = direct.lease(size);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * @param buffer a buffer leased from this pool
+     */
+    public void release(ByteBuffer buffer) {
+        direct.release(buffer);
+    }
+
+    /**
+     * @param directBuffers true for the direct buffers, false for the heap buffers
+     * @return the buffers leased and not released yet
+     */
+    public long getLeasedCount(boolean directBuffers) {
+        return pool(directBuffers).leased.get();
+    }
+
+    /**
+     * @param directBuffers true for the direct buffers, false for the heap buffers
+     * @return the bytes of the released buffers kept for the next leases
+     */
+    public long getPooledBytes(boolean directBuffers) {
+        return pool(directBuffers).pooledBytes.get();
+    }
+
+    /**
+     * @param directBuffers true for the direct buffers, false for the heap buffers
+     * @return the leases so far
+     */
+    public long getLeaseCount(boolean directBuffers) {
+        return pool(directBuffers).leases.sum();
+    }
+
+    /**
+     * @param directBuffers true for the direct buffers, false for the heap buffers
+     * @return the leases so far which found no pooled buffer and allocated one
+     */
+    public long getAllocationCount(boolean directBuffers) {
+        return pool(directBuffers).allocations.sum();
+    }
+
+    private Pool<?> pool(boolean directBuffers) {
+        return directBuffers ? direct : heap;
+    }
+
+    private static int sizeClass(int size) {
+        return size <= MIN_BUFFER_SIZE ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    private abstract static class Pool<B> {
+        private final long maxPooledBytes;
+        /**
+         * array backed, a release allocates no queue node.
+         */
+        private final ArrayBlockingQueue<B>[] classes;
+        private final AtomicLong pooledBytes = new AtomicLong();
+        private final AtomicLong leased = new AtomicLong();
+        private final LongAdder leases = new LongAdder();
+        private final LongAdder allocations = new LongAdder();
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Pool(long maxPooledBytes) {
+            this.maxPooledBytes = maxPooledBytes;
+            this.classes = new ArrayBlockingQueue[SIZE_CLASSES];
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                long slots = maxPooledBytes / (MIN_BUFFER_SIZE << i);
+                classes[i] = new ArrayBlockingQueue<>((int) Math.max(1, Math.min(slots, Integer.MAX_VALUE)));
+            }
+        }
+
+        abstract B allocate(int size);
+
+        abstract int capacity(B buffer);
+
+        B lease(int size) {
+            if (size < 0) {
+                throw new IllegalArgumentException("size must not be negative");
+            }
+            leases.increment();
+            leased.incrementAndGet();
+            if (size > MAX_BUFFER_SIZE) {
+                allocations.increment();
+                return allocate(size);
+            }
+            int sizeClass = sizeClass(size);
+            B buffer = classes[sizeClass].poll();
+            if (null != buffer) {
+                pooledBytes.addAndGet(-capacity(buffer));
+                return buffer;
+            }
+            allocations.increment();
+            return allocate(MIN_BUFFER_SIZE << sizeClass);
+        }
+
+        void release(B buffer) {
+            if (null == buffer) {
+                throw new IllegalArgumentException("Buffer can NOT be null.");
+            }
+            leased.decrementAndGet();
+            int capacity = capacity(buffer);
+            // only the sizes this pool hands out
+            if (capacity > MAX_BUFFER_SIZE || capacity < MIN_BUFFER_SIZE || Integer.bitCount(capacity) != 1) {
+                return;
+            }
+            if (pooledBytes.addAndGet(capacity) > maxPooledBytes || !classes[sizeClass(capacity)].offer(buffer)) {
+                pooledBytes.addAndGet(-capacity);
+            }
+        }
+    }
+}
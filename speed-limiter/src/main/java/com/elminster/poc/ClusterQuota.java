@@ -0,0 +1,431 @@
+package com.elminster.poc;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The share of one node in a cluster wide quota: bytes are leased in blocks from the shared {@link QuotaStore}
+ * in the background and granted locally. Attach it with {@link SpeedLimiter#setClusterQuota(ClusterQuota)}.
+ */
+public class ClusterQuota implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterQuota.class);
+
+    public static final int MIN_LEASE = 16 * 1024; // 16KB
+    public static final int MAX_LEASE = 1024 * 1024; // 1MB
+    public static final long LEASE_PERIOD = TimeUnit.MILLISECONDS.toNanos(SpeedLimiter.SPEED_RATE);
+    public static final long RETRY_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final QuotaStore store;
+    private final String name;
+    /**
+     * runs the calls to the store made in the background.
+     */
+    private final Executor executor;
+    /**
+     * the executor created by this quota, shut down on close.
+     */
+    private final ExecutorService ownExecutor;
+
+    private volatile int minLeaseInBytes = MIN_LEASE;
+    private volatile int maxLeaseInBytes = MAX_LEASE;
+    private volatile long leasePeriodInNanos = LEASE_PERIOD;
+    private volatile long retryIntervalInNanos = RETRY_INTERVAL;
+
+    /**
+     * the leased bytes not granted yet, negative while non-blocking callers are in debt.
+     */
+    private final AtomicLong balance = new AtomicLong();
+
+    /**
+     * serializes the calls to the store, a caller waiting for it mostly finds its bytes leased by then.
+     */
+    private final Lock leaseLock = new ReentrantLock();
+
+    /**
+     * guarded by the lease lock.
+     */
+    private long grantedAtLastLease;
+    private long lastLeaseNanos = System.nanoTime();
+
+    private volatile long lastLeaseInBytes = MIN_LEASE;
+
+    private final AtomicBoolean prefetching = new AtomicBoolean();
+    private final AtomicBoolean watchingIdle = new AtomicBoolean();
+    private volatile boolean closed = false;
+
+    private final LongAdder grantedBytes = new LongAdder();
+    private final LongAdder leasedBytes = new LongAdder();
+    private final LongAdder leases = new LongAdder();
+
+    /**
+     * Lease in the background on a thread of this quota, which ends once idle for a lease period or on close.
+     * @param store the shared budget
+     * @param name the name of the quota in the store
+     */
+    public ClusterQuota(QuotaStore store, String name) {
+        this(store, name, newExecutor(name), true);
+    }
+
+    /**
+     * @param store the shared budget
+     * @param name the name of the quota in the store
+     * @param executor runs the calls to the store made in the background
+     */
+    public ClusterQuota(QuotaStore store, String name, Executor executor) {
+        this(store, name, executor, false);
+    }
+
+    private ClusterQuota(QuotaStore store, String name, Executor executor, boolean ownExecutor) {
+        if (null == store || null == name || null == executor) {
+            throw new IllegalArgumentException("Quota Store, Name and Executor can NOT be null.");
+        }
+        this.store = store;
+        this.name = name;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor ? (ExecutorService) executor : null;
+    }
+
+    private static ExecutorService newExecutor(String name) {
+        // the calls to the store are serialized by the lease lock anyway
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, LEASE_PERIOD, TimeUnit.NANOSECONDS,
+                new LinkedBlockingQueue<>(), new QuotaThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMinLeaseInBytes() {
+        return minLeaseInBytes;
+    }
+
+    public int getMaxLeaseInBytes() {
+        return maxLeaseInBytes;
+    }
+
+    /**
+     * Set the bounds of the lease size, the max is also the max burst of the limiter holding the quota.
+     * @param minLeaseInBytes the smallest lease
+     * @param maxLeaseInBytes the largest lease
+     */
+    public void setLeaseInBytes(int minLeaseInBytes, int maxLeaseInBytes) {
+        if (minLeaseInBytes <= 0 || maxLeaseInBytes < minLeaseInBytes) {
+            throw new IllegalArgumentException("Min Lease should be greater than 0 and NOT greater than Max Lease.");
+        }
+        this.minLeaseInBytes = minLeaseInBytes;
+        this.maxLeaseInBytes = maxLeaseInBytes;
+    }
+
+    /**
+     * Set how long a lease should last, and how long leased bytes are kept while idle.
+     * @param leasePeriodInNanos the lease period
+     */
+    public void setLeasePeriodInNanos(long leasePeriodInNanos) {
+        if (leasePeriodInNanos <= 0) {
+            throw new IllegalArgumentException("Lease Period in Nanos should be greater than 0.");
+        }
+        this.leasePeriodInNanos = leasePeriodInNanos;
+    }
+
+    /**
+     * Set how long to wait before asking the store again once its budget is exhausted.
+     * @param retryIntervalInNanos the retry interval
+     */
+    public void setRetryIntervalInNanos(long retryIntervalInNanos) {
+        if (retryIntervalInNanos <= 0) {
+            throw new IllegalArgumentException("Retry Interval in Nanos should be greater than 0.");
+        }
+        this.retryIntervalInNanos = retryIntervalInNanos;
+    }
+
+    /**
+     * @return the leased bytes not granted yet, negative while in debt
+     */
+    public long getBalance() {
+        return balance.get();
+    }
+
+    /**
+     * @return the bytes granted so far
+     */
+    public long getGrantedBytes() {
+        return grantedBytes.sum();
+    }
+
+    /**
+     * @return the bytes leased from the store so far
+     */
+    public long getLeasedBytes() {
+        return leasedBytes.sum();
+    }
+
+    /**
+     * @return how many times the store was asked for a lease
+     */
+    public long getLeaseCount() {
+        return leases.sum();
+    }
+
+    /**
+     * Grant the bytes only if they are leased already.
+     * @param bytes the bytes to grant
+     * @return true if granted
+     */
+    boolean tryAcquire(int bytes) {
+        long remains;
+        do {
+            remains = balance.get();
+            if (remains < bytes) {
+                prefetch();
+                return false;
+            }
+        } while (!balance.compareAndSet(remains, remains - bytes));
+        granted(bytes, remains - bytes);
+        return true;
+    }
+
+    /**
+     * Grant the bytes, leasing on the caller thread if the leased bytes ran out, and waiting
+     * for the budget of the store to refill if it is exhausted.
+     * @param bytes the bytes to grant
+     * @param requester the limiter the bytes are acquired on, for the stall events
+     * @param holder the limiter holding this quota, for the stall events
+     * @return the nanos waited for the store, 0 if the bytes were leased already
+     * @throws InterruptedException if interrupted while waiting, the bytes are not granted
+     */
+    long acquire(int bytes, SpeedLimiter requester, SpeedLimiter holder) throws InterruptedException {
+        long remains = balance.addAndGet(-bytes);
+        long waited = 0;
+        if (remains < 0) {
+            long start = System.nanoTime();
+            Object stall = SpeedLimiterEvents.beginStall();
+            try {
+                while ((remains = leaseDeficit()) < 0) {
+                    SpeedLimiter.parkUntil(System.nanoTime() + retryIntervalInNanos);
+                }
+                SpeedLimiterEvents.endStall(stall, requester, holder, name, bytes);
+            } catch (InterruptedException e) {
+                refund(bytes);
+                throw e;
+            }
+            waited = System.nanoTime() - start;
+        }
+        granted(bytes, remains);
+        return waited;
+    }
+
+    /**
+     * Grant the bytes without waiting for the store. Without leased bytes left the caller goes into debt,
+     * which the background lease pays off; the deeper the debt, the longer the pause.
+     * @param bytes the bytes to grant
+     * @return the nanos the caller should pause, 0 if the bytes were leased already
+     */
+    long reserve(int bytes) {
+        long remains = balance.addAndGet(-bytes);
+        granted(bytes, remains);
+        if (remains >= 0) {
+            return 0;
+        }
+        int minLease = minLeaseInBytes;
+        return retryIntervalInNanos * ((-remains + minLease - 1) / minLease);
+    }
+
+    /**
+     * Give back bytes which were granted but not transferred.
+     * @param bytes the bytes
+     */
+    void refund(int bytes) {
+        balance.addAndGet(bytes);
+    }
+
+    private void granted(int bytes, long remains) {
+        grantedBytes.add(bytes);
+        if (remains < lastLeaseInBytes / 2) {
+            prefetch();
+        }
+    }
+
+    /**
+     * Lease what the callers are short of, unless a caller did so meanwhile.
+     * @return the balance after leasing, still negative if the store is exhausted
+     */
+    private long leaseDeficit() {
+        leaseLock.lock();
+        try {
+            long remains = balance.get();
+            if (remains < 0) {
+                remains = balance.addAndGet(lease(-remains));
+            }
+            return remains;
+        } finally {
+            leaseLock.unlock();
+        }
+    }
+
+    /**
+     * Lease the next block, sized to what was used over the last lease period, and at least the deficit.
+     * Guarded by the lease lock.
+     * @param deficit the bytes the callers are short of
+     * @return the bytes leased
+     */
+    private long lease(long deficit) {
+        long now = System.nanoTime();
+        long granted = grantedBytes.sum();
+        double usedPerPeriod = (double) (granted - grantedAtLastLease) * leasePeriodInNanos
+                / Math.max(1, now - lastLeaseNanos);
+        grantedAtLastLease = granted;
+        lastLeaseNanos = now;
+        long size = Math.max(deficit, Math.max(minLeaseInBytes, Math.min(maxLeaseInBytes, (long) usedPerPeriod)));
+        long leased = store.lease(name, size);
+        leases.increment();
+        leasedBytes.add(leased);
+        lastLeaseInBytes = size;
+        if (logger.isDebugEnabled()) {
+            logger.debug("quota [{}] leased [{}] of [{}] bytes", name, leased, size);
+        }
+        watchIdle();
+        return leased;
+    }
+
+    /**
+     * Lease the next block in the background, once at a time. After a short lease the store is asked
+     * again after the retry interval at the earliest.
+     */
+    private void prefetch() {
+        if (closed || !prefetching.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                boolean exhausted = false;
+                try {
+                    if (leaseLock.tryLock()) {
+                        try {
+                            long remains = balance.get();
+                            if (remains < lastLeaseInBytes / 2) {
+                                long wanted = Math.max(0, -remains);
+                                long leased = lease(wanted);
+                                balance.addAndGet(leased);
+                                exhausted = leased < Math.max(wanted, minLeaseInBytes);
+                            }
+                        } finally {
+                            leaseLock.unlock();
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    exhausted = true;
+                    logger.error(e.getMessage(), e);
+                } finally {
+                    if (exhausted) {
+                        SpeedLimiterScheduler.getInstance().schedule(() -> prefetching.set(false), retryIntervalInNanos);
+                    } else {
+                        prefetching.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            prefetching.set(false);
+            logger.warn("quota [{}] could not lease in the background: {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * Check every lease period whether the node still uses the quota, until it does not.
+     */
+    private void watchIdle() {
+        if (watchingIdle.compareAndSet(false, true)) {
+            scheduleIdleCheck(grantedBytes.sum());
+        }
+    }
+
+    private void scheduleIdleCheck(long grantedBefore) {
+        SpeedLimiterScheduler.getInstance().schedule(() -> checkIdle(grantedBefore), leasePeriodInNanos);
+    }
+
+    private void checkIdle(long grantedBefore) {
+        long granted = grantedBytes.sum();
+        if (granted != grantedBefore && !closed) {
+            scheduleIdleCheck(granted);
+            return;
+        }
+        watchingIdle.set(false);
+        if (closed) {
+            // released on close
+            return;
+        }
+        try {
+            // the store may be slow, not on the scheduler thread
+            executor.execute(this::releaseUnused);
+        } catch (RejectedExecutionException e) {
+            logger.warn("quota [{}] could not release the unused bytes: {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * Give the leased bytes left back to the store, the next acquire leases again.
+     */
+    private void releaseUnused() {
+        leaseLock.lock();
+        try {
+            long remains;
+            do {
+                remains = balance.get();
+                if (remains <= 0) {
+                    return;
+                }
+            } while (!balance.compareAndSet(remains, 0));
+            store.release(name, remains);
+            if (logger.isDebugEnabled()) {
+                logger.debug("quota [{}] released [{}] unused bytes", name, remains);
+            }
+        } catch (RuntimeException e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            leaseLock.unlock();
+        }
+    }
+
+    /**
+     * Give the leased bytes left back to the store.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        releaseUnused();
+        if (null != ownExecutor) {
+            ownExecutor.shutdown();
+        }
+    }
+
+    static class QuotaThreadFactory implements ThreadFactory {
+        private final String name;
+
+        QuotaThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "cluster-quota-" + name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.elminster.poc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link QuotaStore} in the memory of one JVM, for tests and single node setups.
+ * Each budget holds at most one second worth of its rate.
+ */
+public class InMemoryQuotaStore implements QuotaStore {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long defaultRateInBytesPerSec;
+    private final ConcurrentMap<String, Budget> budgets = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultRateInBytesPerSec the rate of the quotas without a rate of their own
+     */
+    public InMemoryQuotaStore(long defaultRateInBytesPerSec) {
+        checkRate(defaultRateInBytesPerSec);
+        this.defaultRateInBytesPerSec = defaultRateInBytesPerSec;
+    }
+
+    /**
+     * Set the rate of one quota, the budget already accumulated is kept up to one second worth of the new rate.
+     * @param quota the name of the quota
+     * @param rateInBytesPerSec the rate of the quota
+     */
+    public void setRate(String quota, long rateInBytesPerSec) {
+        checkRate(rateInBytesPerSec);
+        getBudget(quota).setRate(rateInBytesPerSec);
+    }
+
+    /**
+     * @param quota the name of the quota
+     * @return the rate of the quota in bytes per second
+     */
+    public long getRate(String quota) {
+        return getBudget(quota).getRate();
+    }
+
+    /**
+     * @param quota the name of the quota
+     * @return the bytes which can be leased right now
+     */
+    public long getAvailable(String quota) {
+        return getBudget(quota).getAvailable();
+    }
+
+    @Override
+    public long lease(String quota, long bytes) {
+        checkBytes(bytes);
+        return getBudget(quota).lease(bytes);
+    }
+
+    @Override
+    public void release(String quota, long bytes) {
+        checkBytes(bytes);
+        getBudget(quota).release(bytes);
+    }
+
+    private Budget getBudget(String quota) {
+        if (null == quota) {
+            throw new IllegalArgumentException("Quota can NOT be null.");
+        }
+        return budgets.computeIfAbsent(quota, q -> new Budget(defaultRateInBytesPerSec));
+    }
+
+    private static void checkRate(long rateInBytesPerSec) {
+        if (rateInBytesPerSec <= 0) {
+            throw new IllegalArgumentException("Rate in Bytes per Second should be greater than 0.");
+        }
+    }
+
+    private static void checkBytes(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Bytes should NOT be negative.");
+        }
+    }
+
+    /**
+     * The token bucket of one quota, refilled lazily on each call.
+     */
+    private static final class Budget {
+
+        private long rate;
+        private long available;
+        private long refilledNanos = System.nanoTime();
+
+        Budget(long rate) {
+            this.rate = rate;
+            this.available = rate;
+        }
+
+        synchronized long getRate() {
+            return rate;
+        }
+
+        synchronized void setRate(long rate) {
+            refill();
+            this.rate = rate;
+            available = Math.min(available, rate);
+        }
+
+        synchronized long getAvailable() {
+            refill();
+            return available;
+        }
+
+        synchronized long lease(long bytes) {
+            refill();
+            long leased = Math.min(bytes, available);
+            available -= leased;
+            return leased;
+        }
+
+        synchronized void release(long bytes) {
+            refill();
+            available = Math.min(rate, available + bytes);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            long elapsed = now - refilledNanos;
+            if (elapsed >= NANOS_PER_SECOND) {
+                // a whole second or more, the budget is full
+                available = rate;
+                refilledNanos = now;
+                return;
+            }
+            long refilled = bytesIn(elapsed, rate);
+            if (refilled > 0) {
+                available = Math.min(rate, available + refilled);
+                // the fraction of a byte not refilled yet is kept for the next call
+                refilledNanos += nanosOf(refilled, rate);
+            }
+        }
+
+        // the products overflow past ~9.2 GB/s, such rates fall back to the double math
+        private static long bytesIn(long nanos, long rate) {
+            if (nanos <= Long.MAX_VALUE / rate) {
+                return nanos * rate / NANOS_PER_SECOND;
+            }
+            return (long) ((double) nanos * rate / NANOS_PER_SECOND);
+        }
+
+        private static long nanosOf(long bytes, long rate) {
+            if (bytes <= Long.MAX_VALUE / NANOS_PER_SECOND) {
+                return bytes * NANOS_PER_SECOND / rate;
+            }
+            return (long) ((double) bytes * NANOS_PER_SECOND / rate);
+        }
+    }
+}
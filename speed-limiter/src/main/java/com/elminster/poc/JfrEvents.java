@@ -0,0 +1,168 @@
+package com.elminster.poc;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder events of the limiters, identified by {@link SpeedLimiter#getId()}.
+ * Only loaded by {@link SpeedLimiterEvents} when JFR is available.
+ */
+final class JfrEvents {
+
+    static final String CATEGORY = "Speed Limiter";
+
+    /**
+     * checked before a stall or refill is timed, so nothing is allocated while no recording takes them.
+     */
+    private static final EventType STALL_TYPE = EventType.getEventType(ThrottleStall.class);
+    private static final EventType REFILL_TYPE = EventType.getEventType(Refill.class);
+
+    private JfrEvents() {
+    }
+
+    static void created(SpeedLimiter limiter) {
+        LimiterCreated event = new LimiterCreated();
+        if (event.shouldCommit()) {
+            event.limiterId = limiter.getId();
+            event.parentId = null == limiter.getParent() ? 0 : limiter.getParent().getId();
+            event.mode = limiter.getMode().name();
+            event.maxSpeed = limiter.getMaxSpeedInBytesPerSec();
+            event.commit();
+        }
+    }
+
+    static void closed(SpeedLimiter limiter) {
+        LimiterClosed event = new LimiterClosed();
+        if (event.shouldCommit()) {
+            event.limiterId = limiter.getId();
+            event.grantedBytes = limiter.getGrantedBytes();
+            event.waited = limiter.getWaitedNanos();
+            event.stalls = limiter.getStallCount();
+            event.commit();
+        }
+    }
+
+    static Object beginStall() {
+        if (!STALL_TYPE.isEnabled()) {
+            return null;
+        }
+        ThrottleStall event = new ThrottleStall();
+        event.begin();
+        return event;
+    }
+
+    static void endStall(Object stall, SpeedLimiter requester, SpeedLimiter limiter, String quota, int bytes) {
+        ThrottleStall event = (ThrottleStall) stall;
+        event.end();
+        if (event.shouldCommit()) {
+            event.requesterId = requester.getId();
+            event.limiterId = limiter.getId();
+            event.quota = quota;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    static Object beginRefill() {
+        if (!REFILL_TYPE.isEnabled()) {
+            return null;
+        }
+        Refill event = new Refill();
+        event.begin();
+        return event;
+    }
+
+    static void endRefill(Object refill, int limiters) {
+        Refill event = (Refill) refill;
+        event.end();
+        if (event.shouldCommit()) {
+            event.limiters = limiters;
+            event.commit();
+        }
+    }
+
+    @Name("com.elminster.poc.LimiterCreated")
+    @Label("Limiter Created")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class LimiterCreated extends Event {
+        @Label("Limiter Id")
+        long limiterId;
+
+        @Label("Parent Id")
+        @Description("0 for a root limiter")
+        long parentId;
+
+        @Label("Mode")
+        String mode;
+
+        @Label("Max Speed")
+        @Description("-1 if unlimited")
+        @DataAmount(DataAmount.BYTES)
+        @Frequency
+        long maxSpeed;
+    }
+
+    @Name("com.elminster.poc.LimiterClosed")
+    @Label("Limiter Closed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class LimiterClosed extends Event {
+        @Label("Limiter Id")
+        long limiterId;
+
+        @Label("Granted")
+        @DataAmount(DataAmount.BYTES)
+        long grantedBytes;
+
+        @Label("Waited")
+        @Timespan(Timespan.NANOSECONDS)
+        long waited;
+
+        @Label("Stalls")
+        long stalls;
+    }
+
+    @Name("com.elminster.poc.ThrottleStall")
+    @Label("Throttle Stall")
+    @Description("A thread parked until its bytes conform to the rate of a limiter or a cluster quota")
+    @Category(CATEGORY)
+    @Threshold("10 ms")
+    static final class ThrottleStall extends Event {
+        @Label("Requester Id")
+        @Description("The limiter the bytes were acquired on")
+        long requesterId;
+
+        @Label("Limiter Id")
+        @Description("The limiter whose budget the thread waited for")
+        long limiterId;
+
+        @Label("Quota")
+        @Description("The cluster quota the thread waited for, if any")
+        String quota;
+
+        @Label("Requested")
+        @DataAmount(DataAmount.BYTES)
+        long bytes;
+    }
+
+    @Name("com.elminster.poc.Refill")
+    @Label("Refill Tick")
+    @Description("A refill of the tick limiters by the scheduler")
+    @Category(CATEGORY)
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class Refill extends Event {
+        @Label("Limiters")
+        int limiters;
+    }
+}
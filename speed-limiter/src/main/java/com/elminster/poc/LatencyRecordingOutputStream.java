@@ -0,0 +1,43 @@
+package com.elminster.poc;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Report the latency of every write and flush to the {@link AdaptiveSpeedController},
+ * e.g. around the stream to the storage.
+ */
+public class LatencyRecordingOutputStream extends FilterOutputStream {
+
+    private final AdaptiveSpeedController controller;
+
+    public LatencyRecordingOutputStream(OutputStream target, AdaptiveSpeedController controller) {
+        super(target);
+        if (null == target || null == controller) {
+            throw new IllegalArgumentException("Target OutputStream and Controller can NOT be null.");
+        }
+        this.controller = controller;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        out.write(b);
+        controller.recordWrite(1, System.nanoTime() - start);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        out.write(b, off, len);
+        controller.recordWrite(len, System.nanoTime() - start);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        out.flush();
+        controller.recordWrite(0, System.nanoTime() - start);
+    }
+}
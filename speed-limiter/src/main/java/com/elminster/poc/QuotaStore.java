@@ -0,0 +1,23 @@
+package com.elminster.poc;
+
+/**
+ * The shared budget of the cluster wide quotas, see {@link ClusterQuota}.
+ * Implementations must be thread safe, the calls may block on the network.
+ */
+public interface QuotaStore {
+
+    /**
+     * Lease bytes from the budget of a quota, without waiting for the budget to refill.
+     * @param quota the name of the quota
+     * @param bytes the bytes wanted
+     * @return the bytes leased, between 0 and the bytes wanted
+     */
+    long lease(String quota, long bytes);
+
+    /**
+     * Give leased bytes which were not used back to the budget of the quota.
+     * @param quota the name of the quota
+     * @param bytes the unused bytes
+     */
+    void release(String quota, long bytes);
+}
@@ -0,0 +1,126 @@
+package com.elminster.poc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Throttled zero-copy transfers between a {@link FileChannel} and another channel, in slices of one limiter burst.
+ * The other channel should be the raw socket or file channel, not a throttled wrapper.
+ */
+public final class SpeedLimitedChannels {
+
+    static final int MAX_COPY_BUFFER_SIZE = 64 * 1024;
+
+    private SpeedLimitedChannels() {
+    }
+
+    /**
+     * Transfer bytes from the file to the target channel.
+     * @param src the source file
+     * @param position the position in the file to start from
+     * @param count the max bytes to transfer
+     * @param target the target channel
+     * @param speedLimiter the limiter
+     * @return the bytes transferred, less than count if the end of the file is reached
+     * @throws IOException if an I/O error occurs
+     */
+    public static long transferTo(FileChannel src, long position, long count, WritableByteChannel target,
+            SpeedLimiter speedLimiter) throws IOException {
+        if (speedLimiter.isUnlimited()) {
+            return src.transferTo(position, count, target);
+        }
+        long transferred = 0;
+        while (transferred < count) {
+            long slice = Math.min(count - transferred, speedLimiter.getMaxBurstInBytes());
+            long n = src.transferTo(position + transferred, slice, target);
+            if (n <= 0) {
+                break;
+            }
+            acquire(speedLimiter, (int) n);
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    /**
+     * Transfer bytes from the source channel into the file.
+     * @param src the source channel
+     * @param dest the target file
+     * @param position the position in the file to start at
+     * @param count the max bytes to transfer
+     * @param speedLimiter the limiter
+     * @return the bytes transferred, less than count if the source has no more bytes
+     * @throws IOException if an I/O error occurs
+     */
+    public static long transferFrom(ReadableByteChannel src, FileChannel dest, long position, long count,
+            SpeedLimiter speedLimiter) throws IOException {
+        if (speedLimiter.isUnlimited()) {
+            return dest.transferFrom(src, position, count);
+        }
+        long transferred = 0;
+        while (transferred < count) {
+            long slice = Math.min(count - transferred, speedLimiter.getMaxBurstInBytes());
+            long n = dest.transferFrom(src, position + transferred, slice);
+            if (n <= 0) {
+                break;
+            }
+            acquire(speedLimiter, (int) n);
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    /**
+     * Copy the rest of the source channel to the target channel through a pooled direct buffer of one burst.
+     * @param src the source channel, in blocking mode
+     * @param target the target channel
+     * @param speedLimiter the limiter
+     * @return the bytes copied
+     * @throws IOException if an I/O error occurs
+     */
+    public static long copy(ReadableByteChannel src, WritableByteChannel target, SpeedLimiter speedLimiter)
+            throws IOException {
+        BufferPool pool = BufferPool.getDefault();
+        int size = BufferPool.getBufferSize(speedLimiter, MAX_COPY_BUFFER_SIZE);
+        ByteBuffer buffer = pool.leaseDirect(size);
+        try {
+            // the pooled buffer may be larger
+            buffer.limit(size);
+            boolean unlimited = speedLimiter.isUnlimited();
+            long copied = 0;
+            int read;
+            while ((read = src.read(buffer)) >= 0) {
+                if (0 == read) {
+                    continue;
+                }
+                if (!unlimited) {
+                    acquire(speedLimiter, read);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                buffer.clear().limit(size);
+                copied += read;
+            }
+            return copied;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    static void acquire(SpeedLimiter speedLimiter, int bytes) throws InterruptedIOException {
+        try {
+            speedLimiter.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ex = new InterruptedIOException("interrupted while waiting for the speed limiter");
+            ex.bytesTransferred = bytes;
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.elminster.poc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link FileChannel} whose reads, writes and transfers are charged against a limiter.
+ * Memory mapped access can't be throttled and is passed through as is.
+ */
+public class SpeedLimitedFileChannel extends FileChannel {
+
+    private final FileChannel target;
+    private final SpeedLimiter speedLimiter;
+
+    public SpeedLimitedFileChannel(FileChannel target, SpeedLimiter speedLimiter) {
+        if (null == target || null == speedLimiter) {
+            throw new IllegalArgumentException("Target Channel and Speed Limiter can NOT be null.");
+        }
+        this.target = target;
+        this.speedLimiter = speedLimiter;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return throttle(dst, target::read);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long read = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (dsts[i].hasRemaining()) {
+                int n = read(dsts[i]);
+                if (n < 0) {
+                    return 0 == read ? -1 : read;
+                }
+                read += n;
+                if (dsts[i].hasRemaining()) {
+                    break;
+                }
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        return throttle(dst, buffer -> target.read(buffer, position));
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return throttle(src, target::write);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (srcs[i].hasRemaining()) {
+                written += write(srcs[i]);
+                if (srcs[i].hasRemaining()) {
+                    break;
+                }
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+        return throttle(src, buffer -> target.write(buffer, position));
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel dest) throws IOException {
+        return SpeedLimitedChannels.transferTo(target, position, count, dest, speedLimiter);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        return SpeedLimitedChannels.transferFrom(src, target, position, count, speedLimiter);
+    }
+
+    @Override
+    public long position() throws IOException {
+        return target.position();
+    }
+
+    @Override
+    public FileChannel position(long newPosition) throws IOException {
+        target.position(newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return target.size();
+    }
+
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+        target.truncate(size);
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        target.force(metaData);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        return target.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        return target.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return target.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+        speedLimiter.close();
+        target.close();
+    }
+
+    /**
+     * Run the I/O on at most one burst of the buffer, then charge the bytes transferred.
+     */
+    private int throttle(ByteBuffer buffer, BufferIo io) throws IOException {
+        if (speedLimiter.isUnlimited()) {
+            return io.apply(buffer);
+        }
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + Math.min(buffer.remaining(), speedLimiter.getMaxBurstInBytes()));
+        int transferred;
+        try {
+            transferred = io.apply(buffer);
+        } finally {
+            buffer.limit(limit);
+        }
+        if (transferred > 0) {
+            SpeedLimitedChannels.acquire(speedLimiter, transferred);
+        }
+        return transferred;
+    }
+
+    private interface BufferIo {
+        int apply(ByteBuffer buffer) throws IOException;
+    }
+}
@@ -2,19 +2,31 @@ package com.elminster.poc;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Throttle every byte read from the target stream, single bytes are paid once per internal batch.
+ * The stream is not thread safe.
+ */
 public class SpeedLimitedInputStream extends InputStream {
 
     private static final Logger logger = LoggerFactory.getLogger(SpeedLimitedInputStream.class);
 
     private static final int EOF = -1;
+    static final int BATCH_SIZE = 256;
+    static final int MAX_TRANSFER_BUFFER_SIZE = 64 * 1024;
 
     private final InputStream target;
     private final SpeedLimiter speedLimter;
 
+    private final byte[] batch = new byte[BATCH_SIZE];
+    private int batchPos;
+    private int batchCount;
+
     public SpeedLimitedInputStream(InputStream target, SpeedLimiter speedLimiter) {
         this.target = target;
         this.speedLimter = speedLimiter;
@@ -22,52 +34,137 @@ public class SpeedLimitedInputStream extends InputStream {
 
     @Override
     public int read() throws IOException {
-        return target.read();
+        if (batchPos >= batchCount) {
+            // the batch is paid when it is filled
+            int read = readThrottled(batch, 0, BATCH_SIZE);
+            if (read <= 0) {
+                return EOF;
+            }
+            batchPos = 0;
+            batchCount = read;
+        }
+        return batch[batchPos++] & 0xff;
     }
 
     @Override
     public int read(byte b[], int off, int len) throws IOException {
-        logger.debug("read bytes size:[{}], offset:[{}], length:[{}]", b.length, off, len);
-        int sizeToRead = len;
-        int read = 0;
-        if (SpeedLimiter.UNLIMITED == speedLimter.getMaxSpeedInBytesPerSec()) { // unlimted
-            logger.debug("Unlimited Speed.");
-            read = target.read(b, off, len);
-        } else {
-            while (sizeToRead > 0) {
-                logger.debug("Limit Speed to {} bytes/sec.", speedLimter.getMaxSpeedInBytesPerSec());
-                int remainBytesToRead = speedLimter.getBytesRemains();
-                logger.debug("trying to read bytes. limiter remain bytes [{}]", remainBytesToRead);
-                int curRead = target.read(b, off, sizeToRead);
-                if (EOF == curRead) {
-                    break;
-                }
-                read += curRead;
-                speedLimter.setBytesRemains(remainBytesToRead - curRead);
-                off += curRead;
-                sizeToRead -= curRead;
-                if (remainBytesToRead >= sizeToRead) {
-                    logger.debug("do NOT hit the max bytes limition, read [{}] bytes", sizeToRead);
-                } else {
-                    logger.debug("hit the max limition, read part of the bytes. actual bytes lenth:[{}], read bytes length:[{}], offset:[{}]",
-                            len, remainBytesToRead, off);
-                    try {
-                        logger.debug("waiting for next read");
-                        Thread.sleep(SpeedLimiter.SPEED_RATE);
-                    } catch (InterruptedException e) {
-                        // TODO Auto-generated catch block
-                        logger.error(e.getMessage(), e);
-                    }
-                }
-                logger.debug("read bytes.");
-            }   
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (0 == len) {
+            return 0;
+        }
+        if (batchPos < batchCount) {
+            // hand out what is left of the batch first, it is already paid
+            int n = Math.min(len, batchCount - batchPos);
+            System.arraycopy(batch, batchPos, b, off, n);
+            batchPos += n;
+            return n;
+        }
+        return readThrottled(b, off, len);
+    }
+
+    private int readThrottled(byte b[], int off, int len) throws IOException {
+        if (speedLimter.isUnlimited()) { // unlimted
+            return target.read(b, off, len);
+        }
+        // read at most one burst, then pay for what was actually read
+        int sizeToRead = Math.min(len, speedLimter.getMaxBurstInBytes());
+        int read = target.read(b, off, sizeToRead);
+        if (read <= 0) {
+            return read;
         }
+        pay(read);
         return read;
     }
 
+    /**
+     * Skip the bytes in the target, paying for them as if they were read.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, batchCount - batchPos);
+        batchPos += (int) skipped;
+        boolean unlimited = speedLimter.isUnlimited();
+        while (skipped < n) {
+            long step = unlimited ? n - skipped : Math.min(n - skipped, speedLimter.getMaxBurstInBytes());
+            long s = target.skip(step);
+            if (s <= 0) {
+                break;
+            }
+            if (!unlimited) {
+                pay((int) s);
+            }
+            skipped += s;
+        }
+        return skipped;
+    }
+
+    /**
+     * The bytes left in the batch plus the estimate of the target. Reading them does not block
+     * on the target, but may still wait for the limiter.
+     */
+    @Override
+    public int available() throws IOException {
+        int buffered = batchCount - batchPos;
+        int available = target.available();
+        return available > Integer.MAX_VALUE - buffered ? Integer.MAX_VALUE : buffered + available;
+    }
+
+    /**
+     * Copy the rest of the stream to the output at the limited speed.
+     *
+     * Overrides {@code InputStream.transferTo(OutputStream)} on Java 9 and above. The copy buffer
+     * of one burst is leased from the {@link BufferPool#getDefault() default pool} for the copy.
+     * @param out the output stream
+     * @return the number of bytes transferred
+     * @throws IOException on I/O error
+     */
+    public long transferTo(OutputStream out) throws IOException {
+        if (null == out) {
+            throw new NullPointerException("out");
+        }
+        long transferred = 0;
+        if (batchPos < batchCount) {
+            int n = batchCount - batchPos;
+            out.write(batch, batchPos, n);
+            batchPos = batchCount;
+            transferred += n;
+        }
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.leaseArray(BufferPool.getBufferSize(speedLimter, MAX_TRANSFER_BUFFER_SIZE));
+        try {
+            int read;
+            while ((read = readThrottled(buffer, 0, buffer.length)) >= 0) {
+                out.write(buffer, 0, read);
+                transferred += read;
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        return transferred;
+    }
+
+    private void pay(int bytes) throws InterruptedIOException {
+        try {
+            long waited = speedLimter.acquire(bytes);
+            if (logger.isDebugEnabled()) {
+                logger.debug("read [{}] bytes, waited [{}] ns for the limiter", bytes, waited);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ex = new InterruptedIOException("interrupted while waiting for the speed limiter");
+            ex.bytesTransferred = bytes;
+            throw ex;
+        }
+    }
+
     @Override
     public void close() throws IOException {
         speedLimter.close();
         super.close();
     }
-}
\ No newline at end of file
+}
@@ -1,18 +1,27 @@
 package com.elminster.poc;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-
+/**
+ * Throttle every byte written to the target stream, single bytes are paid once per internal batch.
+ * The stream is not thread safe.
+ */
 public class SpeedLimitedOutputStream extends OutputStream {
     private static final Logger logger = LoggerFactory.getLogger(SpeedLimitedOutputStream.class);
 
+    static final int BATCH_SIZE = 256;
+
     private final OutputStream target;
     private final SpeedLimiter speedLimter;
 
+    private final byte[] batch = new byte[BATCH_SIZE];
+    private int batchCount;
+
    public SpeedLimitedOutputStream(OutputStream target, SpeedLimiter speedLimter) {
        this.target = target;
        this.speedLimter = speedLimter;
@@ -23,50 +32,70 @@ public class SpeedLimitedOutputStream extends OutputStream {
 
     @Override
     public void write(int b) throws IOException {
-        target.write(b);
+        if (batchCount == BATCH_SIZE) {
+            flushBatch();
+        }
+        batch[batchCount++] = (byte) b;
     }
 
     @Override
     public void write(byte b[], int off, int len) throws IOException {
-        logger.debug("wrtie bytes size:[{}], offset:[{}], length:[{}]", b.length, off, len);
-        int sizeToWrite = len;
-        if (SpeedLimiter.UNLIMITED == speedLimter.getMaxSpeedInBytesPerSec()) { // unlimted
-            logger.debug("Unlimited Speed.");
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        // keep the order of the bytes
+        flushBatch();
+        writeThrottled(b, off, len);
+    }
+
+    private void writeThrottled(byte b[], int off, int len) throws IOException {
+        if (speedLimter.isUnlimited()) { // unlimted
             target.write(b, off, len);
-        } else {
-            while (sizeToWrite > 0) {
-                logger.debug("Limit Speed to {} bytes/sec.", speedLimter.getMaxSpeedInBytesPerSec());
-                int remainBytesToWrite = speedLimter.getBytesRemains();
-                logger.debug("trying to write bytes. limiter remain bytes [{}]", remainBytesToWrite);
-                if (remainBytesToWrite >= sizeToWrite) {
-                    logger.debug("do NOT hit the max bytes limition, write [{}] bytes", sizeToWrite);
-                    target.write(b, off, sizeToWrite);
-                    off += sizeToWrite;
-                    sizeToWrite -= sizeToWrite;
-                    speedLimter.setBytesRemains(remainBytesToWrite - sizeToWrite);
-                } else {
-                    logger.debug("hit the max limition, write part of the bytes. actual bytes lenth:[{}], write bytes length:[{}]",
-                            len, remainBytesToWrite);
-                    target.write(b, off, remainBytesToWrite);
-                    off += remainBytesToWrite;
-                    sizeToWrite -= remainBytesToWrite;
-                    speedLimter.setBytesRemains(0);
-                    try {
-                        logger.debug("waiting for next wrtie");
-                        Thread.sleep(SpeedLimiter.SPEED_RATE);
-                    } catch (InterruptedException e) {
-                        // TODO Auto-generated catch block
-                        logger.error(e.getMessage(), e);
-                    }
+            return;
+        }
+        int sizeToWrite = len;
+        int burst = speedLimter.getMaxBurstInBytes();
+        while (sizeToWrite > 0) {
+            int chunk = Math.min(sizeToWrite, burst);
+            try {
+                long waited = speedLimter.acquire(chunk);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("write [{}] bytes, waited [{}] ns for the limiter", chunk, waited);
                 }
-                logger.debug("written bytes.");
-            }   
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                InterruptedIOException ex = new InterruptedIOException("interrupted while waiting for the speed limiter");
+                ex.bytesTransferred = len - sizeToWrite;
+                throw ex;
+            }
+            target.write(b, off, chunk);
+            off += chunk;
+            sizeToWrite -= chunk;
+        }
+    }
+
+    private void flushBatch() throws IOException {
+        if (batchCount > 0) {
+            int count = batchCount;
+            // an interrupted write keeps nothing of the batch, as a bulk write would
+            batchCount = 0;
+            writeThrottled(batch, 0, count);
         }
     }
 
+    @Override
+    public void flush() throws IOException {
+        flushBatch();
+        target.flush();
+    }
+
     @Override
     public void close() throws IOException {
-        speedLimter.close();
-        super.close();
+        try {
+            flushBatch();
+        } finally {
+            speedLimter.close();
+            super.close();
+        }
     }
-}
\ No newline at end of file
+}
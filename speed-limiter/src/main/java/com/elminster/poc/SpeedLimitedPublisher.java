@@ -0,0 +1,250 @@
+package com.elminster.poc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Throttle a reactive stream of buffers, e.g. a {@code Flux<DataBuffer>} of a WebFlux request body, without holding
+ * a thread and keeping the backpressure of the subscriber. The limiter is closed once the stream ends, so a publisher
+ * should only be subscribed once.
+ * @param <T> the type of the buffers
+ */
+public class SpeedLimitedPublisher<T> implements Publisher<T> {
+    private static final Logger logger = LoggerFactory.getLogger(SpeedLimitedPublisher.class);
+
+    private final Publisher<? extends T> source;
+    private final SpeedLimiter speedLimiter;
+    private final ToIntFunction<? super T> sizer;
+    private final Consumer<? super T> discard;
+
+    /**
+     * @param source the buffers to throttle
+     * @param speedLimiter the limiter
+     * @param sizer the bytes of a buffer
+     * @param discard called with the buffers which are not passed on
+     */
+    public SpeedLimitedPublisher(Publisher<? extends T> source, SpeedLimiter speedLimiter,
+            ToIntFunction<? super T> sizer, Consumer<? super T> discard) {
+        if (null == source || null == speedLimiter || null == sizer || null == discard) {
+            throw new IllegalArgumentException("Source Publisher, Speed Limiter, Sizer and Discard can NOT be null.");
+        }
+        this.source = source;
+        this.speedLimiter = speedLimiter;
+        this.sizer = sizer;
+        this.discard = discard;
+    }
+
+    /**
+     * Throttle the remaining bytes of each {@link ByteBuffer}.
+     * @param source the buffers to throttle
+     * @param speedLimiter the limiter
+     * @return the throttled buffers
+     */
+    public static SpeedLimitedPublisher<ByteBuffer> ofByteBuffers(Publisher<? extends ByteBuffer> source,
+            SpeedLimiter speedLimiter) {
+        return new SpeedLimitedPublisher<>(source, speedLimiter, ByteBuffer::remaining, buffer -> { });
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (null == subscriber) {
+            throw new NullPointerException("Subscriber can NOT be null.");
+        }
+        source.subscribe(new ThrottledSubscriber(subscriber));
+    }
+
+    private class ThrottledSubscriber implements Subscriber<T>, Subscription {
+
+        private final Subscriber<? super T> downstream;
+        private volatile Subscription upstream;
+
+        /**
+         * the items the subscriber asked for and did not get yet.
+         */
+        private final AtomicLong demand = new AtomicLong();
+
+        /**
+         * serializes the signals to the subscriber and the requests to the source, see {@link #drain()}.
+         */
+        private final AtomicInteger wip = new AtomicInteger();
+
+        /**
+         * an item is requested from the source and did not arrive yet.
+         */
+        private volatile boolean awaiting = false;
+
+        /**
+         * the item to pass on, once the limiter has no pause left for it, see {@link #resume}.
+         */
+        private final AtomicReference<T> held = new AtomicReference<>();
+        private volatile ScheduledFuture<?> resume;
+        private volatile boolean paused = false;
+
+        /**
+         * the source completed, the subscriber is told once the last item is passed on.
+         */
+        private volatile boolean done = false;
+
+        /**
+         * the source failed, the subscriber is told right away, but never while it takes an item.
+         */
+        private volatile Throwable error;
+
+        private final AtomicBoolean terminated = new AtomicBoolean();
+        private volatile boolean cancelled = false;
+
+        ThrottledSubscriber(Subscriber<? super T> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            if (null != upstream) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (cancelled || terminated.get()) {
+                discard.accept(item);
+                return;
+            }
+            awaiting = false;
+            if (Long.MAX_VALUE != demand.get()) {
+                demand.decrementAndGet();
+            }
+            int bytes = sizer.applyAsInt(item);
+            long pause = bytes > 0 ? speedLimiter.reserve(bytes) : 0;
+            if (pause > 0) {
+                // before the item is held, so no drain passes it on early
+                paused = true;
+                held.set(item);
+                // the source and the subscriber run off the scheduler thread
+                resume = SpeedLimiterScheduler.getInstance().schedule(
+                        () -> ForkJoinPool.commonPool().execute(this::resume), pause);
+            } else {
+                held.set(item);
+            }
+            drain();
+        }
+
+        private void resume() {
+            paused = false;
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (terminated.get()) {
+                return;
+            }
+            error = t;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                upstream.cancel();
+                onError(new IllegalArgumentException("Requested items should be greater than 0 (rule 3.9)."));
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            upstream.cancel();
+            terminate();
+        }
+
+        /**
+         * Pass on the item the limiter has no pause left for, then request the next item from the source,
+         * unless one is on its way or the subscriber asked for nothing. Complete the subscriber once the source
+         * is done and paid off, fail it as soon as the source fails. Only one thread at a time runs the loop,
+         * so the subscriber is signalled serially (rule 1.3) whichever thread the source or the pause ends on.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                Throwable failure = error;
+                if (null != failure) {
+                    if (terminate()) {
+                        downstream.onError(failure);
+                    }
+                } else if (!paused) {
+                    T item = held.getAndSet(null);
+                    if (null != item) {
+                        if (cancelled || terminated.get()) {
+                            discard.accept(item);
+                        } else {
+                            downstream.onNext(item);
+                        }
+                    }
+                    if (done) {
+                        if (terminate()) {
+                            downstream.onComplete();
+                        }
+                    } else if (!cancelled && !terminated.get() && !awaiting && demand.get() > 0) {
+                        awaiting = true;
+                        upstream.request(1);
+                    }
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        private boolean terminate() {
+            if (!terminated.compareAndSet(false, true)) {
+                return false;
+            }
+            ScheduledFuture<?> pending = resume;
+            if (null != pending) {
+                pending.cancel(false);
+            }
+            T item = held.getAndSet(null);
+            if (null != item) {
+                discard.accept(item);
+            }
+            try {
+                speedLimiter.close();
+            } catch (IOException e) {
+                logger.warn(e.getMessage(), e);
+            }
+            return true;
+        }
+    }
+}
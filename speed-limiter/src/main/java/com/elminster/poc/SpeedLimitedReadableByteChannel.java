@@ -0,0 +1,53 @@
+package com.elminster.poc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A {@link ReadableByteChannel} which reads at most one burst of the limiter per call,
+ * then waits until the limiter grants the bytes read. Works with heap and direct buffers alike.
+ */
+public class SpeedLimitedReadableByteChannel implements ReadableByteChannel {
+
+    private final ReadableByteChannel target;
+    private final SpeedLimiter speedLimiter;
+
+    public SpeedLimitedReadableByteChannel(ReadableByteChannel target, SpeedLimiter speedLimiter) {
+        if (null == target || null == speedLimiter) {
+            throw new IllegalArgumentException("Target Channel and Speed Limiter can NOT be null.");
+        }
+        this.target = target;
+        this.speedLimiter = speedLimiter;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (speedLimiter.isUnlimited()) {
+            return target.read(dst);
+        }
+        int limit = dst.limit();
+        dst.limit(dst.position() + Math.min(dst.remaining(), speedLimiter.getMaxBurstInBytes()));
+        int read;
+        try {
+            read = target.read(dst);
+        } finally {
+            dst.limit(limit);
+        }
+        if (read > 0) {
+            SpeedLimitedChannels.acquire(speedLimiter, read);
+        }
+        return read;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return target.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        speedLimiter.close();
+        target.close();
+    }
+}
@@ -0,0 +1,53 @@
+package com.elminster.poc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link WritableByteChannel} which writes at most one burst of the limiter per call,
+ * then waits until the limiter grants the bytes written. Works with heap and direct buffers alike.
+ */
+public class SpeedLimitedWritableByteChannel implements WritableByteChannel {
+
+    private final WritableByteChannel target;
+    private final SpeedLimiter speedLimiter;
+
+    public SpeedLimitedWritableByteChannel(WritableByteChannel target, SpeedLimiter speedLimiter) {
+        if (null == target || null == speedLimiter) {
+            throw new IllegalArgumentException("Target Channel and Speed Limiter can NOT be null.");
+        }
+        this.target = target;
+        this.speedLimiter = speedLimiter;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (speedLimiter.isUnlimited()) {
+            return target.write(src);
+        }
+        int limit = src.limit();
+        src.limit(src.position() + Math.min(src.remaining(), speedLimiter.getMaxBurstInBytes()));
+        int written;
+        try {
+            written = target.write(src);
+        } finally {
+            src.limit(limit);
+        }
+        if (written > 0) {
+            SpeedLimitedChannels.acquire(speedLimiter, written);
+        }
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return target.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        speedLimiter.close();
+        target.close();
+    }
+}
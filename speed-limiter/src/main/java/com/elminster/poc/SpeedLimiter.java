@@ -2,79 +2,895 @@ package com.elminster.poc;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Limits the bytes per second granted to the streams sharing it.
+ * Limiters form a tree, each parent splits its rate among its active children by weight and {@link Priority}.
+ */
 public class SpeedLimiter implements Closeable {
-    public static final Integer UNLIMITED = -1;
-    private static final Integer DEFAULT_LIMITION = UNLIMITED;
+    public static final long UNLIMITED = -1;
+    private static final long DEFAULT_LIMITION = UNLIMITED;
     private static final int INTERVAL = 1000; // 1 sec
     public static final int SPEED_RATE = 200; // 200 ms per tick
     private static final int UPDATE_TIME = INTERVAL / SPEED_RATE;
-    
-    private final Refresher refresher = new Refresher();
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long UNLIMITED_RATE = Long.MAX_VALUE;
+    private static final AtomicLong IDS = new AtomicLong();
 
-    private final Integer maxSpeedInBytesPerSec;
+    /**
+     * How the budget of a limiter is refilled.
+     */
+    public enum Mode {
+        /** the budget is refilled every {@link SpeedLimiter#SPEED_RATE} ms by the shared scheduler. */
+        TICK,
+        /** the budget is refilled lazily from {@link System#nanoTime()} on each acquire, no thread involved. */
+        LAZY
+    }
+
+    /**
+     * The priority class of a limiter in the share of its parent, on top of the weight of the limiter.
+     * A class gets a larger share than the classes below it, without starving them.
+     */
+    public enum Priority {
+        BULK(1),
+        NORMAL(4),
+        INTERACTIVE(16);
+
+        private final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+    }
+
+    /**
+     * the cap of this limiter, may be changed while bytes are in flight, see {@link #setMaxSpeedInBytesPerSec(long)}.
+     */
+    private volatile long maxSpeedInBytesPerSec;
+
+    private final long id = IDS.incrementAndGet();
+
+    private final Mode mode;
+
+    private final SpeedLimiter parent;
+
+    /**
+     * the root of the tree.
+     */
+    private final SpeedLimiter root;
+
+    /**
+     * shared by the whole tree, guards the active children and the allotted rates.
+     */
+    private final Lock treeLock;
 
-    private Integer bytesRemains;
+    /**
+     * the children which acquired since they were created and are not closed yet.
+     */
+    private final Set<SpeedLimiter> activeChildren = ConcurrentHashMap.newKeySet();
+
+    /**
+     * the rate allotted by the parent, {@link #UNLIMITED_RATE} without parent.
+     */
+    private volatile long allottedRate = UNLIMITED_RATE;
+
+    private volatile boolean active = false;
+
+    /**
+     * the weight of this limiter in the share of its parent, multiplied by the weight of its priority class.
+     */
+    private volatile int weight = 1;
+    private volatile Priority priority = Priority.NORMAL;
+
+    /**
+     * LAZY: the max bytes granted at once after idling, 0 for one tick worth of the rate.
+     */
+    private volatile int maxBurstInBytes = 0;
+
+    /**
+     * LAZY: pauses shorter than this are carried over to the next acquire instead of parking.
+     */
+    private volatile long resolutionInNanos = 0;
+
+    /**
+     * TICK: the bytes of the rate not refilled yet because they do not divide into the ticks,
+     * only touched by the scheduler thread.
+     */
+    private long tickCarry;
+
+    /**
+     * LAZY: the fractions of a nanosecond left over by the costs of the reservations, in 1/rate ns.
+     */
+    private final AtomicLong costCarry = new AtomicLong();
+
+    /**
+     * TICK: the bytes remaining in the current tick, negative when a caller went into debt.
+     * LAZY: the theoretical arrival time (GCRA) of the next byte in {@link System#nanoTime()}.
+     */
+    private final AtomicLong state = new AtomicLong();
 
     private volatile boolean stop = false;
 
-    private ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * the statistics of this limiter, including the acquires of its descendants.
+     */
+    private final LongAdder grantedBytes = new LongAdder();
+    private final LongAdder waitedNanos = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+
+    /**
+     * TICK: the registration with the scheduler, null while unlimited.
+     */
+    private volatile SpeedLimiterScheduler.Registration registration;
+
+    /**
+     * the cluster wide quota charged together with this limiter, null if the limit is local only.
+     */
+    private volatile ClusterQuota clusterQuota;
 
     public SpeedLimiter() {
         this(DEFAULT_LIMITION);
     }
 
-    public SpeedLimiter(Integer maxSpeedInBytesPerSec) {
-        if (maxSpeedInBytesPerSec <= 0 && UNLIMITED != maxSpeedInBytesPerSec) {
-            throw new IllegalArgumentException("Max Speed in Bytes per Second should be greater than 0.");
+    public SpeedLimiter(long maxSpeedInBytesPerSec) {
+        this(maxSpeedInBytesPerSec, Mode.TICK);
+    }
+
+    public SpeedLimiter(long maxSpeedInBytesPerSec, Mode mode) {
+        this(maxSpeedInBytesPerSec, mode, null);
+    }
+
+    /**
+     * Create a paced limiter: it grants at most the burst at once and makes callers wait, in
+     * nanoseconds, exactly for the deficit beyond it, instead of handing out a tick worth of
+     * bytes every {@link #SPEED_RATE} ms.
+     * @param maxSpeedInBytesPerSec the max speed
+     * @param maxBurstInBytes the max bytes granted at once after idling
+     * @param resolutionInNanos the shortest pause worth parking for, shorter pauses are carried over
+     */
+    public SpeedLimiter(long maxSpeedInBytesPerSec, int maxBurstInBytes, long resolutionInNanos) {
+        this(maxSpeedInBytesPerSec, Mode.LAZY, null);
+        setMaxBurstInBytes(maxBurstInBytes);
+        setResolutionInNanos(resolutionInNanos);
+    }
+
+    /**
+     * Create a limiter which is charged together with its parent.
+     * Limiters in a tree always refill lazily.
+     * @param maxSpeedInBytesPerSec the cap of this limiter, or {@link #UNLIMITED} to be only limited by the parent
+     * @param parent the parent limiter
+     */
+    public SpeedLimiter(long maxSpeedInBytesPerSec, SpeedLimiter parent) {
+        this(maxSpeedInBytesPerSec, Mode.LAZY, parent);
+        if (null == parent) {
+            throw new IllegalArgumentException("Parent Speed Limiter can NOT be null.");
+        }
+    }
+
+    private SpeedLimiter(long maxSpeedInBytesPerSec, Mode mode, SpeedLimiter parent) {
+        checkSpeed(maxSpeedInBytesPerSec);
+        if (null == mode) {
+            throw new IllegalArgumentException("Mode can NOT be null.");
+        }
+        if (null != parent && Mode.LAZY != parent.mode) {
+            throw new IllegalArgumentException("Parent Speed Limiter should be in LAZY mode.");
         }
         this.maxSpeedInBytesPerSec = maxSpeedInBytesPerSec;
-        refresher.start();
+        this.mode = mode;
+        this.parent = parent;
+        this.root = null == parent ? this : parent.root;
+        this.treeLock = null == parent ? new ReentrantLock() : parent.treeLock;
+        if (isUnlimited() || Mode.LAZY == mode) {
+            this.state.set(System.nanoTime());
+            this.registration = null;
+        } else {
+            this.state.set(getTickBurst(maxSpeedInBytesPerSec));
+            this.registration = SpeedLimiterScheduler.getInstance().register(this);
+        }
+        SpeedLimiterEvents.created(this);
+    }
+
+    /**
+     * Refill the budget for the next tick, called by the shared {@link SpeedLimiterScheduler}.
+     * A debt left from the previous tick is paid off first. The bytes of the rate which do not divide
+     * into the ticks are carried over, so any rate down to 1 byte per second is honored.
+     */
+    void refill() {
+        long rate = maxSpeedInBytesPerSec;
+        if (UNLIMITED == rate) {
+            return;
+        }
+        long carried = tickCarry + rate % UPDATE_TIME;
+        long quota = rate / UPDATE_TIME + carried / UPDATE_TIME;
+        tickCarry = carried % UPDATE_TIME;
+        long cap = getTickBurst(rate);
+        state.accumulateAndGet(quota, (remains, q) -> Math.min(remains + q, cap));
+    }
+
+    /**
+     * @return true once the limiter is closed
+     */
+    public boolean isClosed() {
+        return stop;
+    }
+
+    /**
+     * @return the id of this limiter in the JFR events, unique within the JVM
+     */
+    public long getId() {
+        return id;
+    }
+
+    public long getMaxSpeedInBytesPerSec() {
+        return maxSpeedInBytesPerSec;
+    }
+
+    /**
+     * Change the cap of this limiter while it is in use, the next acquire is granted at the new rate.
+     * The budget or backlog accumulated so far is kept, the shares of the children are rebalanced at once.
+     * @param maxSpeedInBytesPerSec the new cap, or {@link #UNLIMITED}
+     */
+    public void setMaxSpeedInBytesPerSec(long maxSpeedInBytesPerSec) {
+        checkSpeed(maxSpeedInBytesPerSec);
+        treeLock.lock();
+        try {
+            long oldRate = getEffectiveRate();
+            this.maxSpeedInBytesPerSec = maxSpeedInBytesPerSec;
+            if (null != parent) {
+                parent.rebalance();
+            } else {
+                rebalance();
+            }
+            long newRate = getEffectiveRate();
+            if (Mode.TICK == mode) {
+                if (null == registration && !isUnlimited() && !stop) {
+                    // limited for the first time
+                    state.set(getTickBurst(maxSpeedInBytesPerSec));
+                    registration = SpeedLimiterScheduler.getInstance().register(this);
+                }
+            } else if (oldRate != newRate && UNLIMITED_RATE != oldRate && UNLIMITED_RATE != newRate) {
+                long now = System.nanoTime();
+                // the backlog in bytes stays the same, it just takes longer or shorter to pay off
+                state.getAndUpdate(tat -> tat <= now ? tat
+                        : now + (long) ((tat - now) * ((double) oldRate / newRate)));
+            }
+        } finally {
+            treeLock.unlock();
+        }
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Set the weight of this limiter in the share of its parent, the shares are rebalanced at once.
+     * @param weight the weight, 1 by default
+     */
+    public void setWeight(int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight should be greater than 0.");
+        }
+        treeLock.lock();
+        try {
+            this.weight = weight;
+            if (null != parent) {
+                parent.rebalance();
+            }
+        } finally {
+            treeLock.unlock();
+        }
     }
 
-    class Refresher extends Thread {
-        public void run() {
-            while (!stop) {
-                setBytesRemains(maxSpeedInBytesPerSec / UPDATE_TIME);
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Set the priority class of this limiter in the share of its parent, the shares are rebalanced at once.
+     * @param priority the priority class, {@link Priority#NORMAL} by default
+     */
+    public void setPriority(Priority priority) {
+        if (null == priority) {
+            throw new IllegalArgumentException("Priority can NOT be null.");
+        }
+        treeLock.lock();
+        try {
+            this.priority = priority;
+            if (null != parent) {
+                parent.rebalance();
+            }
+        } finally {
+            treeLock.unlock();
+        }
+    }
+
+    /**
+     * Charge the bytes of this limiter and its descendants against a cluster wide quota as well.
+     * @param clusterQuota the quota, or null to limit on this node only
+     */
+    public void setClusterQuota(ClusterQuota clusterQuota) {
+        this.clusterQuota = clusterQuota;
+    }
+
+    public ClusterQuota getClusterQuota() {
+        return clusterQuota;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public SpeedLimiter getParent() {
+        return parent;
+    }
+
+    /**
+     * Set the max bytes granted at once after idling, LAZY mode only.
+     * Small bursts pace the bytes smoothly, large bursts let the callers catch up after a stall.
+     * @param maxBurstInBytes the max burst, 0 for one tick worth of the rate
+     */
+    public void setMaxBurstInBytes(int maxBurstInBytes) {
+        if (Mode.LAZY != mode) {
+            throw new IllegalStateException("The burst can only be set in LAZY mode.");
+        }
+        if (maxBurstInBytes < 0) {
+            throw new IllegalArgumentException("Max Burst in Bytes should NOT be negative.");
+        }
+        this.maxBurstInBytes = maxBurstInBytes;
+    }
+
+    /**
+     * Set the shortest pause worth parking for, LAZY mode only.
+     * Shorter pauses are not lost but carried over, the next acquire waits for them as well.
+     * @param resolutionInNanos the resolution, 0 to park for any pause
+     */
+    public void setResolutionInNanos(long resolutionInNanos) {
+        if (Mode.LAZY != mode) {
+            throw new IllegalStateException("The resolution can only be set in LAZY mode.");
+        }
+        if (resolutionInNanos < 0) {
+            throw new IllegalArgumentException("Resolution in Nanos should NOT be negative.");
+        }
+        this.resolutionInNanos = resolutionInNanos;
+    }
+
+    /**
+     * @return the rate this limiter grants right now, the min of its own cap and the share allotted
+     *     by its parent, or {@link #UNLIMITED} if neither is limited
+     */
+    public long getEffectiveSpeedInBytesPerSec() {
+        long rate = getEffectiveRate();
+        return UNLIMITED_RATE == rate ? UNLIMITED : rate;
+    }
+
+    /**
+     * @return true if neither this limiter nor any of its ancestors limit the speed, locally or cluster wide
+     */
+    public boolean isUnlimited() {
+        return UNLIMITED == maxSpeedInBytesPerSec && null == clusterQuota
+                && (null == parent || parent.isUnlimited());
+    }
+
+    /**
+     * @return the max bytes a caller should acquire at once, always at least 1
+     */
+    public int getMaxBurstInBytes() {
+        int burst = Integer.MAX_VALUE;
+        for (SpeedLimiter limiter = this; null != limiter; limiter = limiter.parent) {
+            long rate = limiter.getEffectiveRate();
+            if (UNLIMITED_RATE != rate) {
+                burst = (int) Math.min(burst, Mode.TICK == limiter.mode
+                        ? getTickBurst(rate) : limiter.getBurstInBytes(rate));
+            }
+            ClusterQuota quota = limiter.clusterQuota;
+            if (null != quota) {
+                burst = Math.min(burst, quota.getMaxLeaseInBytes());
+            }
+        }
+        return burst;
+    }
+
+    /**
+     * Acquire the bytes only if they are available right now on this limiter and all of its ancestors.
+     * @param bytes the bytes to acquire
+     * @return true if the bytes are acquired
+     */
+    public boolean tryAcquire(int bytes) {
+        checkBytes(bytes);
+        if (isUnlimited()) {
+            return true;
+        }
+        activate();
+        if (Mode.TICK == mode) {
+            if (UNLIMITED != maxSpeedInBytesPerSec) {
+                long remains;
+                do {
+                    remains = state.get();
+                    if (remains < bytes) {
+                        return false;
+                    }
+                } while (!state.compareAndSet(remains, remains - bytes));
+            }
+        } else {
+            for (SpeedLimiter limiter = this; null != limiter; limiter = limiter.parent) {
+                if (!limiter.tryReserve(bytes)) {
+                    for (SpeedLimiter charged = this; charged != limiter; charged = charged.parent) {
+                        charged.refund(bytes);
+                    }
+                    return false;
+                }
+            }
+        }
+        for (SpeedLimiter limiter = this; null != limiter; limiter = limiter.parent) {
+            ClusterQuota quota = limiter.clusterQuota;
+            if (null != quota && !quota.tryAcquire(bytes)) {
+                refundQuotas(bytes, limiter);
+                refundLocally(bytes);
+                return false;
+            }
+        }
+        record(bytes, 0);
+        return true;
+    }
+
+    /**
+     * Acquire the bytes, waiting until this limiter and all of its ancestors can grant them.
+     * The bytes are charged atomically on each level, from this limiter up to the root, concurrent callers
+     * never grant the same budget twice.
+     * @param bytes the bytes to acquire
+     * @return the time waited in nanoseconds
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if a TICK limiter is closed while waiting
+     */
+    public long acquire(int bytes) throws InterruptedException {
+        checkBytes(bytes);
+        if (isUnlimited()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        boolean parked = false;
+        if (Mode.TICK == mode) {
+            while (UNLIMITED != maxSpeedInBytesPerSec) {
+                long remains = state.get();
+                if (remains > 0) {
+                    if (state.compareAndSet(remains, remains - bytes)) {
+                        break;
+                    }
+                } else {
+                    if (stop) {
+                        // nothing refills a closed limiter
+                        throw new IllegalStateException("The limiter is closed.");
+                    }
+                    parked = true;
+                    Object stall = SpeedLimiterEvents.beginStall();
+                    parkUntil(SpeedLimiterScheduler.getInstance().getNextTickNanos());
+                    SpeedLimiterEvents.endStall(stall, this, this, null, bytes);
+                }
+            }
+        } else {
+            activate();
+            long resolution = Math.max(1, resolutionInNanos);
+            for (SpeedLimiter limiter = this; null != limiter; limiter = limiter.parent) {
+                // a level is charged once the bytes conform below it, so the ancestors only queue the bytes
+                // ready to go, not the bytes of the children still waiting for their own share
+                long wait = limiter.reserveOnThis(bytes);
+                if (wait >= resolution) {
+                    parked = true;
+                    Object stall = SpeedLimiterEvents.beginStall();
+                    try {
+                        parkUntil(System.nanoTime() + wait);
+                        SpeedLimiterEvents.endStall(stall, this, limiter, null, bytes);
+                    } catch (InterruptedException e) {
+                        // the bytes won't be transferred, give them back
+                        for (SpeedLimiter charged = this; charged != limiter.parent; charged = charged.parent) {
+                            charged.refund(bytes);
+                        }
+                        throw e;
+                    }
+                }
+            }
+        }
+        for (SpeedLimiter limiter = this; null != limiter; limiter = limiter.parent) {
+            ClusterQuota quota = limiter.clusterQuota;
+            if (null != quota) {
                 try {
-                    Thread.sleep(SPEED_RATE);
+                    parked |= quota.acquire(bytes, this, limiter) > 0;
                 } catch (InterruptedException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
+                    refundQuotas(bytes, limiter);
+                    refundLocally(bytes);
+                    throw e;
                 }
             }
         }
+        long waited = parked ? System.nanoTime() - start : 0;
+        record(bytes, waited);
+        return waited;
     }
 
-    public Integer getMaxSpeedInBytesPerSec() {
-        return maxSpeedInBytesPerSec;
+    /**
+     * Park the current thread until the deadline, without holding any monitor.
+     * @param deadline the deadline in {@link System#nanoTime()}
+     * @throws InterruptedException if interrupted before the deadline, the interrupt status is cleared
+     */
+    static void parkUntil(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * Charge the bytes without waiting, for callers which must not block, e.g. async I/O.
+     * The caller should pause for the returned time before transferring more bytes,
+     * see {@link SpeedLimiterScheduler#schedule(Runnable, long)}.
+     * @param bytes the bytes to charge
+     * @return the nanos until the charged bytes conform to the rate, 0 if the caller can go on
+     */
+    public long reserve(int bytes) {
+        checkBytes(bytes);
+        if (isUnlimited()) {
+            return 0;
+        }
+        long pause = 0;
+        if (Mode.TICK == mode) {
+            long rate = maxSpeedInBytesPerSec;
+            long remains = UNLIMITED == rate ? 0 : state.addAndGet(-bytes);
+            if (remains < 0) {
+                long ticks = (-remains * UPDATE_TIME + rate - 1) / rate;
+                pause = TimeUnit.MILLISECONDS.toNanos(ticks * SPEED_RATE);
+            }
+        } else {
+            pause = reserveOnTree(bytes);
+        }
+        for (SpeedLimiter limiter = this; null != limiter; limiter = limiter.parent) {
+            ClusterQuota quota = limiter.clusterQuota;
+            if (null != quota) {
+                pause = Math.max(pause, quota.reserve(bytes));
+            }
+        }
+        // the caller pauses on its own, count the pause as waited
+        record(bytes, pause);
+        return pause;
+    }
+
+    /**
+     * Reserve the bytes on this LAZY limiter and all of its ancestors.
+     * @return the nanos until the bytes conform on every level, 0 if below the resolution
+     */
+    private long reserveOnTree(int bytes) {
+        activate();
+        long wait = 0;
+        for (SpeedLimiter limiter = this; null != limiter; limiter = limiter.parent) {
+            wait = Math.max(wait, limiter.reserveOnThis(bytes));
+        }
+        // a pause below the resolution stays in the reservations, the next caller waits for it
+        return wait >= Math.max(1, resolutionInNanos) ? wait : 0;
+    }
+
+    /**
+     * Reserve the bytes on this limiter only.
+     * @return the nanos until the reservation conforms to the rate
+     */
+    private long reserveOnThis(int bytes) {
+        long rate = getEffectiveRate();
+        if (UNLIMITED_RATE == rate) {
+            return 0;
+        }
+        long tolerance = getToleranceInNanos(rate);
+        long cost = costWithCarry(bytes, rate);
+        long tat;
+        long next;
+        do {
+            tat = state.get();
+            next = Math.max(tat, System.nanoTime()) + cost;
+        } while (!state.compareAndSet(tat, next));
+        return next - tolerance - System.nanoTime();
+    }
+
+    private boolean tryReserve(int bytes) {
+        long rate = getEffectiveRate();
+        if (UNLIMITED_RATE == rate) {
+            return true;
+        }
+        long tolerance = getToleranceInNanos(rate);
+        long cost = costWithCarry(bytes, rate);
+        long now;
+        long tat;
+        long next;
+        do {
+            now = System.nanoTime();
+            tat = state.get();
+            next = Math.max(tat, now) + cost;
+            if (next - now > tolerance) {
+                return false;
+            }
+        } while (!state.compareAndSet(tat, next));
+        return true;
     }
 
+    /**
+     * Count the granted bytes on this limiter and all of its ancestors.
+     * @param bytes the granted bytes
+     * @param waited the nanos the caller waited for them, 0 if it did not wait
+     */
+    private void record(int bytes, long waited) {
+        for (SpeedLimiter limiter = this; null != limiter; limiter = limiter.parent) {
+            limiter.grantedBytes.add(bytes);
+            if (waited > 0) {
+                limiter.waitedNanos.add(waited);
+                limiter.stalls.increment();
+            }
+        }
+    }
+
+    /**
+     * @return the bytes granted by this limiter and its descendants so far
+     */
+    public long getGrantedBytes() {
+        return grantedBytes.sum();
+    }
+
+    /**
+     * @return the total nanos callers of this limiter and its descendants waited for bytes
+     */
+    public long getWaitedNanos() {
+        return waitedNanos.sum();
+    }
+
+    /**
+     * @return how many acquires of this limiter and its descendants had to wait
+     */
+    public long getStallCount() {
+        return stalls.sum();
+    }
+
+    /**
+     * @return the number of children currently sharing the rate of this limiter
+     */
+    public int getActiveChildCount() {
+        return activeChildren.size();
+    }
+
+    /**
+     * Give back the bytes charged on this limiter, and on its ancestors in a tree.
+     */
+    private void refundLocally(int bytes) {
+        if (Mode.TICK == mode) {
+            if (UNLIMITED != maxSpeedInBytesPerSec) {
+                state.addAndGet(bytes);
+            }
+            return;
+        }
+        for (SpeedLimiter limiter = this; null != limiter; limiter = limiter.parent) {
+            limiter.refund(bytes);
+        }
+    }
+
+    /**
+     * Give back the bytes granted by the cluster quotas of this limiter and its ancestors below the given one.
+     */
+    private void refundQuotas(int bytes, SpeedLimiter upTo) {
+        for (SpeedLimiter limiter = this; limiter != upTo; limiter = limiter.parent) {
+            ClusterQuota quota = limiter.clusterQuota;
+            if (null != quota) {
+                quota.refund(bytes);
+            }
+        }
+    }
+
+    private void refund(int bytes) {
+        long rate = getEffectiveRate();
+        if (UNLIMITED_RATE != rate) {
+            state.addAndGet(-costInNanos(bytes, rate));
+        }
+    }
+
+    /**
+     * @deprecated not atomic with {@link #setBytesRemains(Integer)}, use {@link #tryAcquire(int)} or {@link #acquire(int)}.
+     */
+    @Deprecated
     public Integer getBytesRemains() {
-        Lock rLock = lock.readLock();
+        if (Mode.TICK == mode) {
+            return saturatedCast(state.get());
+        }
+        long rate = getEffectiveRate();
+        long now = System.nanoTime();
+        long tolerance = getToleranceInNanos(rate);
+        long used = Math.max(state.get(), now) - now;
+        return saturatedCast((long) ((double) (tolerance - used) * rate / NANOS_PER_SECOND));
+    }
+
+    /**
+     * @deprecated not atomic with {@link #getBytesRemains()}, use {@link #tryAcquire(int)} or {@link #acquire(int)}.
+     */
+    @Deprecated
+    public void setBytesRemains(Integer bytesRemains) {
+        if (Mode.TICK == mode) {
+            state.set(bytesRemains);
+        } else {
+            long rate = getEffectiveRate();
+            long tolerance = getToleranceInNanos(rate);
+            state.set(System.nanoTime() + tolerance - costInNanos(bytesRemains, rate));
+        }
+    }
+
+    private long getEffectiveRate() {
+        long rate = UNLIMITED == maxSpeedInBytesPerSec ? UNLIMITED_RATE : maxSpeedInBytesPerSec;
+        return Math.min(rate, allottedRate);
+    }
+
+    /**
+     * @return the bytes of one tick, rounded up, at least 1
+     */
+    private static long getTickBurst(long rate) {
+        return Math.max(1, (rate + UPDATE_TIME - 1) / UPDATE_TIME);
+    }
+
+    private long getBurstInBytes(long rate) {
+        int burst = maxBurstInBytes;
+        return burst > 0 ? burst : Math.max(1, rate / UPDATE_TIME);
+    }
+
+    /**
+     * @return how far (GCRA) the reservations may run ahead of the rate, i.e. the time worth one burst
+     */
+    private long getToleranceInNanos(long rate) {
+        return costInNanos(getBurstInBytes(rate), rate);
+    }
+
+    private static long costInNanos(long bytes, long rate) {
+        if (bytes <= Long.MAX_VALUE / NANOS_PER_SECOND) {
+            return bytes * NANOS_PER_SECOND / rate;
+        }
+        return (long) ((double) bytes * NANOS_PER_SECOND / rate);
+    }
+
+    /**
+     * The cost of the bytes in whole nanoseconds, the fraction left over is carried to the next costs,
+     * so small reservations at multi-gigabyte rates are not granted for free.
+     */
+    private long costWithCarry(int bytes, long rate) {
+        long scaled = bytes * NANOS_PER_SECOND;
+        long cost = scaled / rate;
+        long fraction = scaled % rate;
+        if (0 != fraction && costCarry.addAndGet(fraction) >= rate) {
+            costCarry.addAndGet(-rate);
+            cost++;
+        }
+        return cost;
+    }
+
+    private static int saturatedCast(long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    private static void checkSpeed(long maxSpeedInBytesPerSec) {
+        if (maxSpeedInBytesPerSec <= 0 && UNLIMITED != maxSpeedInBytesPerSec) {
+            throw new IllegalArgumentException("Max Speed in Bytes per Second should be greater than 0.");
+        }
+    }
+
+    private static void checkBytes(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Bytes to acquire should NOT be negative.");
+        }
+    }
+
+    /**
+     * Mark this limiter and its ancestors as active so they get a share of their parents.
+     */
+    private void activate() {
+        if (active || null == parent) {
+            return;
+        }
+        treeLock.lock();
         try {
-            rLock.lock();
-            return bytesRemains;
+            if (!stop) {
+                for (SpeedLimiter limiter = this; null != limiter.parent && !limiter.active; limiter = limiter.parent) {
+                    limiter.active = true;
+                    limiter.parent.activeChildren.add(limiter);
+                }
+                root.rebalance();
+            }
         } finally {
-            rLock.unlock();
+            treeLock.unlock();
         }
     }
 
-    public void setBytesRemains(Integer bytesRemains) {
-        Lock wLock = lock.writeLock();
+    /**
+     * Withdraw this limiter from its parent, and the ancestors which have no active child left.
+     */
+    private void deactivate() {
+        if (!active) {
+            return;
+        }
+        treeLock.lock();
         try {
-            wLock.lock();
-            this.bytesRemains = bytesRemains;
+            for (SpeedLimiter limiter = this; null != limiter.parent && limiter.active; limiter = limiter.parent) {
+                limiter.active = false;
+                limiter.parent.activeChildren.remove(limiter);
+                if (!limiter.parent.activeChildren.isEmpty()) {
+                    break;
+                }
+            }
+            root.rebalance();
         } finally {
-            wLock.unlock();
+            treeLock.unlock();
+        }
+    }
+
+    /**
+     * Split the effective rate among the active children, weighted max-min fair: children capped below
+     * their weighted share get their cap, the rest is split by weight among the others. Guarded by the tree lock.
+     */
+    private void rebalance() {
+        if (activeChildren.isEmpty()) {
+            return;
         }
+        long remaining = getEffectiveRate();
+        List<SpeedLimiter> children = new ArrayList<>(activeChildren);
+        children.sort(Comparator.comparingDouble(SpeedLimiter::getCapPerWeight));
+        long weights = 0;
+        for (SpeedLimiter child : children) {
+            weights += child.getShareWeight();
+        }
+        for (SpeedLimiter child : children) {
+            long childWeight = child.getShareWeight();
+            long share = UNLIMITED_RATE == remaining ? UNLIMITED_RATE
+                    : Math.max(1, (long) ((double) remaining * childWeight / weights));
+            long allotted = Math.min(child.getCap(), share);
+            child.allottedRate = share;
+            if (UNLIMITED_RATE != remaining) {
+                remaining = Math.max(0, remaining - allotted);
+            }
+            weights -= childWeight;
+            child.rebalance();
+        }
+    }
+
+    private long getCap() {
+        return UNLIMITED == maxSpeedInBytesPerSec ? UNLIMITED_RATE : maxSpeedInBytesPerSec;
+    }
+
+    private long getShareWeight() {
+        return (long) weight * priority.getWeight();
+    }
+
+    private double getCapPerWeight() {
+        return (double) getCap() / getShareWeight();
     }
 
     @Override
     public void close() throws IOException {
+        boolean closed = this.stop;
         this.stop = true;
-	}
-}
\ No newline at end of file
+        if (null != registration) {
+            registration.cancel();
+        }
+        if (null != parent) {
+            deactivate();
+        }
+        if (!closed) {
+            SpeedLimiterEvents.closed(this);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.elminster.poc;
+
+/**
+ * Emits the Java Flight Recorder events of the limiters, see {@link JfrEvents}, while the library still runs on
+ * any Java 8. Nothing is allocated for the events without a recording of them.
+ */
+final class SpeedLimiterEvents {
+
+    private static final boolean AVAILABLE = isJfrAvailable();
+
+    private SpeedLimiterEvents() {
+    }
+
+    static void created(SpeedLimiter limiter) {
+        if (AVAILABLE) {
+            JfrEvents.created(limiter);
+        }
+    }
+
+    static void closed(SpeedLimiter limiter) {
+        if (AVAILABLE) {
+            JfrEvents.closed(limiter);
+        }
+    }
+
+    /**
+     * Start timing a stall, right before the caller parks.
+     * @return the stall to end, null without JFR or without a recording of the stalls
+     */
+    static Object beginStall() {
+        return AVAILABLE ? JfrEvents.beginStall() : null;
+    }
+
+    /**
+     * @param stall the stall begun, may be null
+     * @param requester the limiter the bytes were acquired on
+     * @param limiter the limiter whose budget the caller waited for
+     * @param quota the name of the cluster quota the caller waited for, null if it waited for the limiter
+     * @param bytes the bytes acquired
+     */
+    static void endStall(Object stall, SpeedLimiter requester, SpeedLimiter limiter, String quota, int bytes) {
+        if (null != stall) {
+            JfrEvents.endStall(stall, requester, limiter, quota, bytes);
+        }
+    }
+
+    /**
+     * Start timing a refill tick of the scheduler.
+     * @return the refill to end, null without JFR or without a recording of the refills
+     */
+    static Object beginRefill() {
+        return AVAILABLE ? JfrEvents.beginRefill() : null;
+    }
+
+    static void endRefill(Object refill, int limiters) {
+        if (null != refill) {
+            JfrEvents.endRefill(refill, limiters);
+        }
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, SpeedLimiterEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
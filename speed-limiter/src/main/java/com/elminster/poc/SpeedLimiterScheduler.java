@@ -0,0 +1,161 @@
+package com.elminster.poc;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared refill engine for the tick based {@link SpeedLimiter}s, on one daemon thread which also runs the short
+ * resumptions of the non-blocking callers, see {@link SpeedLimiter#reserve(int)}.
+ */
+public final class SpeedLimiterScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpeedLimiterScheduler.class);
+
+    private static final SpeedLimiterScheduler INSTANCE = new SpeedLimiterScheduler();
+
+    private final Set<Registration> registrations = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<SpeedLimiter> collected = new ReferenceQueue<>();
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final Lock tickLock = new ReentrantLock();
+
+    private ScheduledFuture<?> tick;
+
+    private volatile long lastTickNanos = System.nanoTime();
+
+    SpeedLimiterScheduler() {
+        executor = new ScheduledThreadPoolExecutor(1, new RefresherThreadFactory());
+        executor.setKeepAliveTime(SpeedLimiter.SPEED_RATE * 5L, TimeUnit.MILLISECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    public static SpeedLimiterScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Run the task once the delay has elapsed.
+     * @param task the task, should return quickly
+     * @param delayInNanos the delay in nanoseconds
+     * @return the future of the task
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delayInNanos) {
+        return executor.schedule(task, delayInNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Register the limiter to be refilled on every tick.
+     * @param limiter the limiter
+     * @return the registration, which should be cancelled once the limiter is closed
+     */
+    Registration register(SpeedLimiter limiter) {
+        Registration registration = new Registration(limiter, collected);
+        registrations.add(registration);
+        ensureStarted();
+        return registration;
+    }
+
+    /**
+     * @return the number of limiters currently refilled by the scheduler
+     */
+    int getRegisteredCount() {
+        return registrations.size();
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} when the tick limiters are refilled next
+     */
+    long getNextTickNanos() {
+        long now = System.nanoTime();
+        long next = lastTickNanos + TimeUnit.MILLISECONDS.toNanos(SpeedLimiter.SPEED_RATE);
+        // a late tick is expected any moment
+        return next > now ? next : now + TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private void ensureStarted() {
+        tickLock.lock();
+        try {
+            if (null == tick) {
+                logger.debug("start the speed limiter refresher.");
+                lastTickNanos = System.nanoTime();
+                tick = executor.scheduleAtFixedRate(this::refill, SpeedLimiter.SPEED_RATE,
+                        SpeedLimiter.SPEED_RATE, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            tickLock.unlock();
+        }
+    }
+
+    private void stopIfIdle() {
+        tickLock.lock();
+        try {
+            if (registrations.isEmpty() && null != tick) {
+                logger.debug("no speed limiter registered, stop the refresher.");
+                tick.cancel(false);
+                tick = null;
+            }
+        } finally {
+            tickLock.unlock();
+        }
+    }
+
+    void refill() {
+        lastTickNanos = System.nanoTime();
+        Object event = SpeedLimiterEvents.beginRefill();
+        Reference<? extends SpeedLimiter> ref;
+        while (null != (ref = collected.poll())) {
+            registrations.remove(ref);
+        }
+        for (Iterator<Registration> it = registrations.iterator(); it.hasNext();) {
+            SpeedLimiter limiter = it.next().get();
+            if (null == limiter || limiter.isClosed()) {
+                it.remove();
+            } else {
+                try {
+                    limiter.refill();
+                } catch (RuntimeException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
+        SpeedLimiterEvents.endRefill(event, registrations.size());
+        if (registrations.isEmpty()) {
+            stopIfIdle();
+        }
+    }
+
+    final class Registration extends WeakReference<SpeedLimiter> {
+
+        Registration(SpeedLimiter limiter, ReferenceQueue<SpeedLimiter> queue) {
+            super(limiter, queue);
+        }
+
+        void cancel() {
+            clear();
+            registrations.remove(this);
+        }
+    }
+
+    static class RefresherThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "speed-limiter-refresher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
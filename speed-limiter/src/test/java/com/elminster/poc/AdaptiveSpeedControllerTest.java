@@ -0,0 +1,98 @@
+package com.elminster.poc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveSpeedControllerTest {
+
+    private static final int MIN_SPEED = 100 * 1024; // 100 KB/s
+    private static final int MAX_SPEED = 1000 * 1024; // 1000 KB/s
+    private static final long TARGET_LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void testSlowWritesCutTheRate() throws IOException {
+        try (SpeedLimiter limiter = new SpeedLimiter(MAX_SPEED, SpeedLimiter.Mode.LAZY);
+                AdaptiveSpeedController controller = newController(limiter)) {
+            controller.recordWrite(8192, TARGET_LATENCY * 2);
+            Assert.assertEquals((long) (MAX_SPEED * 0.7), controller.adjust());
+            Assert.assertEquals((long) (MAX_SPEED * 0.7), limiter.getMaxSpeedInBytesPerSec());
+            for (int i = 0; i < 20; i++) {
+                controller.recordWrite(8192, TARGET_LATENCY * 2);
+                controller.adjust();
+            }
+            Assert.assertEquals(MIN_SPEED, limiter.getMaxSpeedInBytesPerSec());
+        }
+    }
+
+    @Test
+    public void testSaturatedFastWritesRaiseTheRate() throws IOException {
+        try (SpeedLimiter limiter = new SpeedLimiter(MIN_SPEED, SpeedLimiter.Mode.LAZY);
+                AdaptiveSpeedController controller = newController(limiter)) {
+            // a whole second worth of bytes granted
+            Assert.assertTrue(limiter.tryAcquire(limiter.getMaxBurstInBytes()));
+            limiter.reserve(MIN_SPEED);
+            controller.recordWrite(8192, TARGET_LATENCY / 2);
+            int step = (MAX_SPEED - MIN_SPEED) / 20;
+            Assert.assertEquals(MIN_SPEED + step, controller.adjust());
+            // nothing granted since, no demand for more
+            Assert.assertEquals(MIN_SPEED + step, controller.adjust());
+        }
+    }
+
+    @Test
+    public void testLimitSetByHandIsNotRaised() throws IOException {
+        try (SpeedLimiter limiter = new SpeedLimiter(MAX_SPEED, SpeedLimiter.Mode.LAZY);
+                AdaptiveSpeedController controller = newController(limiter)) {
+            controller.setMaxSpeedInBytesPerSec(MAX_SPEED / 2);
+            Assert.assertEquals(MAX_SPEED / 2, limiter.getMaxSpeedInBytesPerSec());
+            // saturated fast writes
+            limiter.reserve(MAX_SPEED);
+            controller.recordWrite(8192, TARGET_LATENCY / 2);
+            Assert.assertEquals(MAX_SPEED / 2, controller.adjust());
+            // slow writes still cut it
+            controller.recordWrite(8192, TARGET_LATENCY * 2);
+            Assert.assertEquals((long) (MAX_SPEED / 2 * 0.7), controller.adjust());
+            // a limit set by hand below the min is kept
+            controller.setMaxSpeedInBytesPerSec(MIN_SPEED / 2);
+            controller.recordWrite(8192, TARGET_LATENCY * 2);
+            Assert.assertEquals(MIN_SPEED / 2, controller.adjust());
+
+            controller.setMaxSpeedInBytesPerSec(SpeedLimiter.UNLIMITED);
+            Assert.assertEquals(MAX_SPEED, limiter.getMaxSpeedInBytesPerSec());
+        }
+    }
+
+    @Test
+    public void testWritesAreRecordedByTheStream() throws IOException {
+        try (SpeedLimiter limiter = new SpeedLimiter(MAX_SPEED, SpeedLimiter.Mode.LAZY);
+                AdaptiveSpeedController controller = newController(limiter)) {
+            ByteArrayOutputStream target = new ByteArrayOutputStream() {
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    // a stalled disk
+                    try {
+                        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(TARGET_LATENCY * 2));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    super.write(b, off, len);
+                }
+            };
+            try (LatencyRecordingOutputStream out = new LatencyRecordingOutputStream(target, controller)) {
+                out.write(new byte[1024]);
+            }
+            Assert.assertEquals(1024, target.size());
+            Assert.assertTrue(controller.adjust() < MAX_SPEED);
+        }
+    }
+
+    private AdaptiveSpeedController newController(SpeedLimiter limiter) {
+        AdaptiveSpeedController controller = new AdaptiveSpeedController(limiter, MIN_SPEED, MAX_SPEED, TARGET_LATENCY);
+        controller.start();
+        return controller;
+    }
+}
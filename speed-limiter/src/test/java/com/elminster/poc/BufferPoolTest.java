@@ -0,0 +1,65 @@
+package com.elminster.poc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testReleasedBuffersAreLeasedAgain() {
+        BufferPool pool = new BufferPool(BufferPool.MAX_POOLED_BYTES);
+        byte[] array = pool.leaseArray(5000);
+        Assert.assertEquals(8 * 1024, array.length);
+        pool.release(array);
+        Assert.assertSame(array, pool.leaseArray(6000));
+        Assert.assertEquals(1, pool.getAllocationCount(false));
+        Assert.assertEquals(2, pool.getLeaseCount(false));
+        Assert.assertEquals(1, pool.getLeasedCount(false));
+
+        ByteBuffer direct = pool.leaseDirect(BufferPool.MIN_BUFFER_SIZE);
+        Assert.assertTrue(direct.isDirect());
+        direct.put((byte) 1);
+        pool.release(direct);
+        ByteBuffer again = pool.leaseDirect(1);
+        Assert.assertSame(direct, again);
+        Assert.assertEquals(0, again.position());
+    }
+
+    @Test
+    public void testPoolKeepsUpToTheMaxPooledBytes() {
+        BufferPool pool = new BufferPool(16 * 1024);
+        byte[] first = pool.leaseArray(8 * 1024);
+        byte[] second = pool.leaseArray(8 * 1024);
+        byte[] third = pool.leaseArray(8 * 1024);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        Assert.assertEquals(16 * 1024, pool.getPooledBytes(false));
+        Assert.assertEquals(0, pool.getLeasedCount(false));
+        // beyond the largest size, never kept
+        pool.release(pool.leaseArray(BufferPool.MAX_BUFFER_SIZE + 1));
+        Assert.assertEquals(16 * 1024, pool.getPooledBytes(false));
+    }
+
+    @Test
+    public void testSteadyStateTransfersAllocateNoBuffer() throws Exception {
+        byte[] data = new byte[256 * 1024];
+        BufferPool pool = BufferPool.getDefault();
+        for (int i = 0; i < 2; i++) {
+            try (SpeedLimitedInputStream in = new SpeedLimitedInputStream(new ByteArrayInputStream(data),
+                    new SpeedLimiter(SpeedLimiter.UNLIMITED))) {
+                Assert.assertEquals(data.length, in.transferTo(new ByteArrayOutputStream(data.length)));
+            }
+        }
+        long allocations = pool.getAllocationCount(false);
+        try (SpeedLimitedInputStream in = new SpeedLimitedInputStream(new ByteArrayInputStream(data),
+                new SpeedLimiter(SpeedLimiter.UNLIMITED))) {
+            in.transferTo(new ByteArrayOutputStream(data.length));
+        }
+        Assert.assertEquals(allocations, pool.getAllocationCount(false));
+    }
+}
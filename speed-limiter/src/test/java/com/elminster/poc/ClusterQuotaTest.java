@@ -0,0 +1,132 @@
+package com.elminster.poc;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClusterQuotaTest {
+
+    private static final int RATE = 200 * 1024; // 200 KB/s
+    private static final int CHUNK = 4 * 1024;
+
+    @Test
+    public void testNodesShareTheClusterRate() throws Exception {
+        InMemoryQuotaStore store = new InMemoryQuotaStore(RATE);
+        AtomicLong transferred = new AtomicLong();
+        long duration = TimeUnit.MILLISECONDS.toNanos(1500);
+        int nodes = 2;
+        CountDownLatch done = new CountDownLatch(nodes);
+        for (int i = 0; i < nodes; i++) {
+            // each node is unlimited on its own
+            SpeedLimiter limiter = new SpeedLimiter(SpeedLimiter.UNLIMITED, SpeedLimiter.Mode.LAZY);
+            limiter.setClusterQuota(new ClusterQuota(store, "client:test"));
+            Assert.assertFalse(limiter.isUnlimited());
+            new Thread(() -> {
+                try {
+                    long start = System.nanoTime();
+                    while (System.nanoTime() - start < duration) {
+                        limiter.acquire(CHUNK);
+                        transferred.addAndGet(CHUNK);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        // the initial budget of one second, the refill, and one lease in hand per node at most
+        long max = RATE + RATE * 3 / 2 + nodes * ClusterQuota.MAX_LEASE / 4;
+        Assert.assertTrue("transferred " + transferred.get(), transferred.get() <= max);
+        Assert.assertTrue("transferred " + transferred.get(), transferred.get() >= RATE * 2);
+    }
+
+    @Test
+    public void testLeasesAreReturnedOnClose() throws Exception {
+        InMemoryQuotaStore store = new InMemoryQuotaStore(RATE);
+        ClusterQuota quota = new ClusterQuota(store, "client:test");
+        try (SpeedLimiter limiter = new SpeedLimiter(SpeedLimiter.UNLIMITED, SpeedLimiter.Mode.LAZY)) {
+            limiter.setClusterQuota(quota);
+            limiter.acquire(1024);
+            Assert.assertEquals(1, quota.getLeaseCount());
+            Assert.assertEquals(ClusterQuota.MIN_LEASE - 1024, quota.getBalance());
+            Assert.assertTrue(store.getAvailable("client:test") < RATE - 1024);
+        }
+        quota.close();
+        Assert.assertEquals(0, quota.getBalance());
+        Assert.assertTrue(store.getAvailable("client:test") >= RATE - 1024);
+    }
+
+    @Test
+    public void testBackgroundThreadEndsOnClose() throws Exception {
+        InMemoryQuotaStore store = new InMemoryQuotaStore(RATE);
+        ClusterQuota quota = new ClusterQuota(store, "client:closed");
+        try (SpeedLimiter limiter = new SpeedLimiter(SpeedLimiter.UNLIMITED, SpeedLimiter.Mode.LAZY)) {
+            limiter.setClusterQuota(quota);
+            // below half of the lease, the next one is leased in the background
+            limiter.acquire(ClusterQuota.MIN_LEASE * 3 / 4);
+            Assert.assertTrue(hasThread("cluster-quota-client:closed"));
+        }
+        quota.close();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (hasThread("cluster-quota-client:closed") && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(hasThread("cluster-quota-client:closed"));
+    }
+
+    @Test
+    public void testIdleLeasesAreReturned() throws Exception {
+        InMemoryQuotaStore store = new InMemoryQuotaStore(RATE);
+        ClusterQuota quota = new ClusterQuota(store, "client:test");
+        quota.setLeasePeriodInNanos(TimeUnit.MILLISECONDS.toNanos(50));
+        SpeedLimiter limiter = new SpeedLimiter(SpeedLimiter.UNLIMITED, SpeedLimiter.Mode.LAZY);
+        limiter.setClusterQuota(quota);
+        limiter.acquire(1024);
+        Assert.assertTrue(quota.getBalance() > 0);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (quota.getBalance() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, quota.getBalance());
+    }
+
+    @Test
+    public void testReserveGoesIntoDebtOnceTheClusterIsExhausted() throws IOException {
+        InMemoryQuotaStore store = new InMemoryQuotaStore(RATE);
+        store.lease("client:test", RATE); // another node took it all
+        try (SpeedLimiter limiter = new SpeedLimiter(SpeedLimiter.UNLIMITED, SpeedLimiter.Mode.LAZY)) {
+            ClusterQuota quota = new ClusterQuota(store, "client:test");
+            limiter.setClusterQuota(quota);
+            long pause = limiter.reserve(CHUNK);
+            Assert.assertTrue(pause >= ClusterQuota.RETRY_INTERVAL);
+            Assert.assertTrue(limiter.reserve(4 * ClusterQuota.MIN_LEASE) > pause);
+        }
+    }
+
+    @Test
+    public void testMultiGigabitRateIsRefilled() throws Exception {
+        long rate = 12_500_000_000L; // 100 Gbit/s
+        InMemoryQuotaStore store = new InMemoryQuotaStore(rate);
+        Assert.assertEquals(rate, store.lease("client:test", rate));
+        // past ~0.74 sec, the refill of such a rate no longer fits in a long
+        Thread.sleep(900);
+        long available = store.getAvailable("client:test");
+        Assert.assertTrue(available > rate / 2);
+        Assert.assertTrue(available <= rate);
+    }
+
+    private static boolean hasThread(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (name.equals(thread.getName()) && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,126 @@
+package com.elminster.poc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.io.Files;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SpeedLimitedFileChannelTest {
+
+    private static final long FILE_SIZE = 60 * 1024 + 35; // 60 KB
+    private static final int SPEED_LIMITION = 100 * 1024; // 100 KB/s
+    static File srcFile = new File("target", "channelSrcFile");
+    static File destTransferToFile = new File("target", "channelDestTransferTo");
+    static File destTransferFromFile = new File("target", "channelDestTransferFrom");
+    static File destDirectBufferFile = new File("target", "channelDestDirectBuffer");
+    static File destCopyFile = new File("target", "channelDestCopy");
+
+    @BeforeClass
+    public static void beforeTest() throws IOException {
+        srcFile.getParentFile().mkdirs();
+        try (RandomAccessFile f = new RandomAccessFile(srcFile, "rw")) {
+            for (long i = 0; i < FILE_SIZE; i++) {
+                f.write((int) i);
+            }
+        }
+    }
+
+    @Test
+    public void testTransferTo() throws IOException {
+        long elapsedMs;
+        try (FileChannel src = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+                FileChannel dest = FileChannel.open(destTransferToFile.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                SpeedLimitedFileChannel limited = new SpeedLimitedFileChannel(src,
+                        new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY))) {
+            long now = System.nanoTime();
+            Assert.assertEquals(FILE_SIZE, limited.transferTo(0, Long.MAX_VALUE, dest));
+            elapsedMs = (System.nanoTime() - now) / 1000000;
+        }
+        assertThrottled(elapsedMs);
+        Assert.assertTrue(Files.equal(srcFile, destTransferToFile));
+    }
+
+    @Test
+    public void testTransferFrom() throws IOException {
+        long elapsedMs;
+        try (FileChannel src = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+                FileChannel dest = FileChannel.open(destTransferFromFile.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                SpeedLimitedFileChannel limited = new SpeedLimitedFileChannel(dest,
+                        new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY))) {
+            long now = System.nanoTime();
+            Assert.assertEquals(FILE_SIZE, limited.transferFrom(src, 0, FILE_SIZE));
+            elapsedMs = (System.nanoTime() - now) / 1000000;
+        }
+        assertThrottled(elapsedMs);
+        Assert.assertTrue(Files.equal(srcFile, destTransferFromFile));
+    }
+
+    @Test
+    public void testReadIntoDirectBuffer() throws IOException {
+        long elapsedMs;
+        try (SpeedLimitedReadableByteChannel src = new SpeedLimitedReadableByteChannel(
+                        FileChannel.open(srcFile.toPath(), StandardOpenOption.READ),
+                        new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY));
+                FileChannel dest = FileChannel.open(destDirectBufferFile.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            long now = System.nanoTime();
+            while (src.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    dest.write(buffer);
+                }
+                buffer.clear();
+            }
+            elapsedMs = (System.nanoTime() - now) / 1000000;
+        }
+        assertThrottled(elapsedMs);
+        Assert.assertTrue(Files.equal(srcFile, destDirectBufferFile));
+    }
+
+    @Test
+    public void testCopyThroughPooledBuffer() throws IOException {
+        long elapsedMs;
+        long leased = BufferPool.getDefault().getLeasedCount(true);
+        try (ReadableByteChannel src = Channels.newChannel(new FileInputStream(srcFile));
+                FileChannel dest = FileChannel.open(destCopyFile.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long now = System.nanoTime();
+            Assert.assertEquals(FILE_SIZE, SpeedLimitedChannels.copy(src, dest,
+                    new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY)));
+            elapsedMs = (System.nanoTime() - now) / 1000000;
+        }
+        assertThrottled(elapsedMs);
+        Assert.assertTrue(Files.equal(srcFile, destCopyFile));
+        Assert.assertEquals(leased, BufferPool.getDefault().getLeasedCount(true));
+    }
+
+    private void assertThrottled(long elapsedMs) {
+        // the first burst (1/5 sec) is granted at once
+        long expectedMs = FILE_SIZE * 1000 / SPEED_LIMITION - SpeedLimiter.SPEED_RATE;
+        Assert.assertTrue("elapsed " + elapsedMs + " ms", elapsedMs >= expectedMs - 50);
+    }
+
+    @AfterClass
+    public static void afterTest() {
+        srcFile.delete();
+        destTransferToFile.delete();
+        destTransferFromFile.delete();
+        destDirectBufferFile.delete();
+        destCopyFile.delete();
+    }
+}
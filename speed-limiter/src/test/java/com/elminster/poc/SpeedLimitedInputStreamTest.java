@@ -1,5 +1,7 @@
 package com.elminster.poc;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -10,6 +12,7 @@ import java.io.RandomAccessFile;
 
 import com.google.common.io.Files;
 
+import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -22,12 +25,13 @@ public class SpeedLimitedInputStreamTest {
 
     private static final long FILE_SIZE = 9 * 1024 + 35; // 1 MB
     private static final int SPEED_LIMITION = 1 * 1024; // 1 KB/s
-    static File srcFile = new File("src");
-    static File destSpeedLimitedFile = new File("destspeedLimited");
-    static File destSpeedUnlimitedFile = new File("destSpeedUnlimited");
+    static File srcFile = new File("target", "srcFile");
+    static File destSpeedLimitedFile = new File("target", "destspeedLimited");
+    static File destSpeedUnlimitedFile = new File("target", "destSpeedUnlimited");
 
     @BeforeClass
     public static void beforeTest() throws IOException {
+        srcFile.getParentFile().mkdirs();
         RandomAccessFile f = new RandomAccessFile(srcFile, "rw");
         f.setLength(FILE_SIZE);
         f.close();
@@ -84,6 +88,65 @@ public class SpeedLimitedInputStreamTest {
         }
     }
 
+    @Test
+    public void testSingleByteReadsAreThrottled() throws IOException {
+        byte[] data = newData();
+        try (SpeedLimitedInputStream in = newLazyLimitedStream(data)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long now = System.nanoTime();
+            int b;
+            while ((b = in.read()) >= 0) {
+                out.write(b);
+            }
+            assertThrottled(now);
+            Assert.assertArrayEquals(data, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void testSkipIsThrottled() throws IOException {
+        byte[] data = newData();
+        try (SpeedLimitedInputStream in = newLazyLimitedStream(data)) {
+            long now = System.nanoTime();
+            Assert.assertEquals(data[0], (byte) in.read());
+            Assert.assertEquals(data.length - 2, in.skip(data.length - 2));
+            assertThrottled(now);
+            Assert.assertEquals(data[data.length - 1], (byte) in.read());
+            Assert.assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testTransferToIsThrottled() throws IOException {
+        byte[] data = newData();
+        try (SpeedLimitedInputStream in = newLazyLimitedStream(data)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long now = System.nanoTime();
+            Assert.assertEquals(data.length, in.transferTo(out));
+            assertThrottled(now);
+            Assert.assertArrayEquals(data, out.toByteArray());
+        }
+    }
+
+    private byte[] newData() {
+        // half a second after the initial burst
+        byte[] data = new byte[SPEED_LIMITION * 10 / 2 + SPEED_LIMITION * 10 * SpeedLimiter.SPEED_RATE / 1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    private SpeedLimitedInputStream newLazyLimitedStream(byte[] data) {
+        return new SpeedLimitedInputStream(new ByteArrayInputStream(data),
+                new SpeedLimiter(SPEED_LIMITION * 10, SpeedLimiter.Mode.LAZY));
+    }
+
+    private void assertThrottled(long start) {
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue("elapsed " + elapsedMs + " ms", elapsedMs >= 450);
+    }
+
     private boolean compareFileByBytes(File src, File dest) throws IOException {
         return Files.equal(src, dest);
     }
@@ -114,6 +177,7 @@ public class SpeedLimitedInputStreamTest {
         fileCopyWithSpeedLimiter(srcFile, destSpeedLimitedFile, limiter);
     }
 
+    @AfterClass
     public static void afterTest() {
         if (srcFile.exists()) {
             srcFile.delete();
@@ -1,5 +1,6 @@
 package com.elminster.poc;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -10,6 +11,7 @@ import java.io.RandomAccessFile;
 
 import com.google.common.io.Files;
 
+import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -24,12 +26,13 @@ public class SpeedLimitedOutputStreamTest {
     //private static final int SPEED_LIMITION = 500 * 1024; // 500 KB/s
     private static final long FILE_SIZE = 9 * 1024 + 35; // 1 MB
     private static final int SPEED_LIMITION = 1 * 1024; // 1 KB/s
-    static File srcFile = new File("src");
-    static File destSpeedLimitedFile = new File("destspeedLimited");
-    static File destSpeedUnlimitedFile = new File("destSpeedUnlimited");
+    static File srcFile = new File("target", "srcFile");
+    static File destSpeedLimitedFile = new File("target", "destspeedLimited");
+    static File destSpeedUnlimitedFile = new File("target", "destSpeedUnlimited");
 
     @BeforeClass
     public static void beforeTest() throws IOException {
+        srcFile.getParentFile().mkdirs();
         RandomAccessFile f = new RandomAccessFile(srcFile, "rw");
         f.setLength(FILE_SIZE);
         f.close();
@@ -86,6 +89,30 @@ public class SpeedLimitedOutputStreamTest {
         }
     }
 
+    @Test
+    public void testSingleByteWritesAreThrottled() throws IOException {
+        int rate = SPEED_LIMITION * 10;
+        // half a second after the initial burst
+        byte[] data = new byte[rate / 2 + rate * SpeedLimiter.SPEED_RATE / 1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long now = System.nanoTime();
+        try (SpeedLimitedOutputStream limited = new SpeedLimitedOutputStream(out,
+                new SpeedLimiter(rate, SpeedLimiter.Mode.LAZY))) {
+            limited.write(data[0]);
+            limited.write(data, 1, 9);
+            for (int i = 10; i < data.length; i++) {
+                limited.write(data[i]);
+            }
+        }
+        long elapsedMs = (System.nanoTime() - now) / 1000000;
+        Assert.assertTrue("elapsed " + elapsedMs + " ms", elapsedMs >= 450);
+        // the batch is written in order and flushed on close
+        Assert.assertArrayEquals(data, out.toByteArray());
+    }
+
     private boolean compareFileByBytes(File src, File dest) throws IOException {
         return Files.equal(src, dest);
     }
@@ -116,6 +143,7 @@ public class SpeedLimitedOutputStreamTest {
         fileCopyWithSpeedLimiter(srcFile, destSpeedLimitedFile, limiter);
     }
 
+    @AfterClass
     public static void afterTest() {
         if (srcFile.exists()) {
             srcFile.delete();
@@ -0,0 +1,204 @@
+package com.elminster.poc;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class SpeedLimitedPublisherTest {
+
+    private static final int SPEED_LIMITION = 100 * 1024; // 100 KB/s
+    private static final int CHUNK = 4 * 1024;
+
+    @Test
+    public void testBuffersArriveAtTheRateWithoutBlocking() throws Exception {
+        BufferSource source = new BufferSource(40, CHUNK);
+        SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY);
+        int burst = limiter.getMaxBurstInBytes();
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        // start the scheduler thread before the clock
+        SpeedLimiterScheduler.getInstance().schedule(() -> { }, 0).get();
+        long start = System.nanoTime();
+        SpeedLimitedPublisher.ofByteBuffers(source, limiter).subscribe(subscriber);
+        // nothing waits on the calling thread, only the first burst arrives at once
+        long subscribedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("subscribed in " + subscribedMs + " ms", subscribedMs < 50);
+        Assert.assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        long expectedMs = (40L * CHUNK - burst) * 1000 / SPEED_LIMITION;
+        Assert.assertEquals(40L * CHUNK, subscriber.bytes.get());
+        Assert.assertTrue("elapsed " + elapsedMs + " ms", elapsedMs >= expectedMs * 0.9 && elapsedMs < expectedMs + 300);
+        Assert.assertTrue(limiter.isClosed());
+    }
+
+    @Test
+    public void testSourceIsNeverAskedForMoreThanTheSubscriber() throws Exception {
+        BufferSource source = new BufferSource(10, CHUNK);
+        RecordingSubscriber subscriber = new RecordingSubscriber(2);
+        SpeedLimitedPublisher.ofByteBuffers(source, new SpeedLimiter(SpeedLimiter.UNLIMITED, SpeedLimiter.Mode.LAZY))
+                .subscribe(subscriber);
+        Assert.assertEquals(2, subscriber.items.get());
+        Assert.assertEquals(2, source.requested.get());
+        subscriber.subscription.request(3);
+        Assert.assertEquals(5, subscriber.items.get());
+        Assert.assertEquals(5, source.requested.get());
+    }
+
+    @Test
+    public void testBuffersAfterCancelAreDiscarded() throws Exception {
+        BufferSource source = new BufferSource(10, CHUNK);
+        SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY);
+        List<ByteBuffer> discarded = new CopyOnWriteArrayList<>();
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        new SpeedLimitedPublisher<ByteBuffer>(source, limiter, ByteBuffer::remaining, discarded::add)
+                .subscribe(subscriber);
+        subscriber.subscription.cancel();
+        Assert.assertTrue(source.cancelled);
+        Assert.assertTrue(limiter.isClosed());
+        // a buffer already on its way when the subscriber cancelled
+        source.subscriber.onNext(ByteBuffer.allocate(CHUNK));
+        Assert.assertEquals(1, discarded.size());
+        Assert.assertEquals(1, subscriber.items.get());
+    }
+
+    @Test
+    public void testErrorWaitsForTheItemBeingPassedOn() throws Exception {
+        SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY);
+        // the first buffer is the burst, the second one is held and passed on from the common pool
+        BufferSource source = new BufferSource(3, limiter.getMaxBurstInBytes());
+        CountDownLatch taking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch failed = new CountDownLatch(1);
+        Subscriber<ByteBuffer> subscriber = new Subscriber<ByteBuffer>() {
+            private final AtomicInteger items = new AtomicInteger();
+            private volatile boolean inOnNext = false;
+
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(2);
+            }
+
+            @Override
+            public void onNext(ByteBuffer buffer) {
+                inOnNext = true;
+                if (2 == items.incrementAndGet()) {
+                    taking.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                inOnNext = false;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                if (inOnNext) {
+                    overlaps.incrementAndGet();
+                }
+                failed.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+        SpeedLimitedPublisher.ofByteBuffers(source, limiter).subscribe(subscriber);
+        Assert.assertTrue(taking.await(5, TimeUnit.SECONDS));
+        source.subscriber.onError(new IllegalStateException("source failed"));
+        Assert.assertEquals(1, failed.getCount());
+        release.countDown();
+        Assert.assertTrue(failed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, overlaps.get());
+        Assert.assertTrue(limiter.isClosed());
+    }
+
+    /**
+     * Emits the buffers synchronously on request, as a source with the data at hand does.
+     */
+    private static class BufferSource implements Publisher<ByteBuffer> {
+        private final int count;
+        private final int size;
+        private final AtomicLong requested = new AtomicLong();
+        private volatile Subscriber<? super ByteBuffer> subscriber;
+        private volatile boolean cancelled = false;
+
+        BufferSource(int count, int size) {
+            this.count = count;
+            this.size = size;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super ByteBuffer> s) {
+            subscriber = s;
+            AtomicInteger emitted = new AtomicInteger();
+            s.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    requested.addAndGet(n);
+                    for (long i = 0; i < n && !cancelled; i++) {
+                        if (emitted.get() == count) {
+                            s.onComplete();
+                            return;
+                        }
+                        emitted.incrementAndGet();
+                        s.onNext(ByteBuffer.allocate(size));
+                    }
+                    if (emitted.get() == count) {
+                        s.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    private static class RecordingSubscriber implements Subscriber<ByteBuffer> {
+        private final long initialRequest;
+        private final AtomicInteger items = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Subscription subscription;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+            s.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(ByteBuffer buffer) {
+            items.incrementAndGet();
+            bytes.addAndGet(buffer.remaining());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
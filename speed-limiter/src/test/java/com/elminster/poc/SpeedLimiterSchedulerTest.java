@@ -0,0 +1,60 @@
+package com.elminster.poc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SpeedLimiterSchedulerTest {
+
+    private static final int LIMITER_COUNT = 2000;
+    private static final int SPEED_LIMITION = 1 * 1024; // 1 KB/s
+
+    @Test
+    public void testLimitersShareOneRefresherThread() throws IOException {
+        SpeedLimiterScheduler scheduler = SpeedLimiterScheduler.getInstance();
+        int threadsBefore = Thread.activeCount();
+        int registeredBefore = scheduler.getRegisteredCount();
+        List<SpeedLimiter> limiters = new ArrayList<>();
+        for (int i = 0; i < LIMITER_COUNT; i++) {
+            limiters.add(new SpeedLimiter(SPEED_LIMITION));
+        }
+        Assert.assertEquals(registeredBefore + LIMITER_COUNT, scheduler.getRegisteredCount());
+        Assert.assertTrue(Thread.activeCount() <= threadsBefore + 1);
+
+        for (SpeedLimiter limiter : limiters) {
+            limiter.close();
+        }
+        Assert.assertEquals(registeredBefore, scheduler.getRegisteredCount());
+    }
+
+    @Test
+    public void testClosedLimiterIsNotRefilled() throws IOException {
+        SpeedLimiterScheduler scheduler = new SpeedLimiterScheduler();
+        SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMITION);
+        limiter.close();
+        scheduler.register(limiter);
+        limiter.setBytesRemains(0);
+
+        scheduler.refill();
+
+        Assert.assertEquals(0, scheduler.getRegisteredCount());
+        Assert.assertEquals(Integer.valueOf(0), limiter.getBytesRemains());
+    }
+
+    @Test
+    public void testUnreachableLimiterIsDropped() throws InterruptedException {
+        SpeedLimiterScheduler scheduler = new SpeedLimiterScheduler();
+        scheduler.register(new SpeedLimiter(SPEED_LIMITION));
+        Assert.assertEquals(1, scheduler.getRegisteredCount());
+
+        for (int i = 0; i < 10 && scheduler.getRegisteredCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(SpeedLimiter.SPEED_RATE);
+            scheduler.refill();
+        }
+        Assert.assertEquals(0, scheduler.getRegisteredCount());
+    }
+}
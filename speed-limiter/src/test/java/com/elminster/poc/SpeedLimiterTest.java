@@ -0,0 +1,419 @@
+package com.elminster.poc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SpeedLimiterTest {
+
+    private static final int SPEED_LIMITION = 100 * 1024; // 100 KB/s
+    private static final int THREADS = 8;
+
+    @Test
+    public void testLazyTryAcquireGrantsAtMostOneBurst() throws IOException {
+        try (SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY)) {
+            int burst = limiter.getMaxBurstInBytes();
+            Assert.assertTrue(limiter.tryAcquire(burst / 2));
+            Assert.assertFalse(limiter.tryAcquire(burst));
+        }
+    }
+
+    @Test
+    public void testTickTryAcquireGrantsAtMostOneTick() throws IOException {
+        try (SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.TICK)) {
+            int burst = limiter.getMaxBurstInBytes();
+            Assert.assertTrue(limiter.tryAcquire(burst));
+            Assert.assertFalse(limiter.tryAcquire(1));
+        }
+    }
+
+    @Test
+    public void testConcurrentLazyTryAcquireIsAtomic() throws Exception {
+        assertConcurrentTryAcquireIsAtomic(SpeedLimiter.Mode.LAZY);
+    }
+
+    @Test
+    public void testConcurrentTickTryAcquireIsAtomic() throws Exception {
+        assertConcurrentTryAcquireIsAtomic(SpeedLimiter.Mode.TICK);
+    }
+
+    @Test
+    public void testLazyAcquireKeepsTheRate() throws Exception {
+        try (SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY)) {
+            int burst = limiter.getMaxBurstInBytes();
+            long bytes = SPEED_LIMITION / 2 + burst; // half a second after the initial burst
+            long start = System.nanoTime();
+            for (long acquired = 0; acquired < bytes; acquired += 1024) {
+                limiter.acquire(1024);
+            }
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            Assert.assertTrue("elapsed " + elapsedMs + " ms", elapsedMs >= 480 && elapsedMs < 700);
+        }
+    }
+
+    @Test
+    public void testPacedRateStaysWithinOnePercentOver50msWindows() throws Exception {
+        int rate = 10 * 1024 * 1024; // 10 MB/s
+        int chunk = 1024;
+        int windows = 40;
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(50);
+        // the limiter rarely pauses longer than ~0.2 ms here, a longer gap is a stall of this thread;
+        // across a window boundary it moves up to the gap worth of bytes, 0.4 ms is below 1% of a window
+        long stallNanos = TimeUnit.MICROSECONDS.toNanos(400);
+        // the burst (~6 ms) only absorbs such stalls, the steady state is paced per chunk
+        try (SpeedLimiter limiter = new SpeedLimiter(rate, 64 * chunk, TimeUnit.MICROSECONDS.toNanos(100))) {
+            Assert.assertEquals(64 * chunk, limiter.getMaxBurstInBytes());
+            limiter.acquire(limiter.getMaxBurstInBytes()); // drain the initial burst
+            // warm up, so the measured loop is not stalled by the JIT
+            long warmUp = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+            while (System.nanoTime() < warmUp) {
+                limiter.acquire(chunk);
+            }
+            long[] granted = new long[windows];
+            boolean[] stalled = new boolean[windows + 1];
+            long burstNanos = TimeUnit.SECONDS.toNanos(limiter.getMaxBurstInBytes()) / rate;
+            long start = System.nanoTime();
+            long last = start;
+            while (true) {
+                limiter.acquire(chunk);
+                long now = System.nanoTime();
+                int window = (int) Math.min(windows, (now - start) / windowNanos);
+                int lastWindow = (int) ((last - start) / windowNanos);
+                if (now - last > stallNanos && (lastWindow != window || now - last > burstNanos)) {
+                    // the burst catches up after a stall, unless it crossed a window or outlasted the burst
+                    stalled[lastWindow] = true;
+                    stalled[window] = true;
+                }
+                if (window >= windows) {
+                    break;
+                }
+                last = now;
+                granted[window] += chunk;
+            }
+            long expected = rate * windowNanos / TimeUnit.SECONDS.toNanos(1);
+            int checked = 0;
+            for (int i = 0; i < windows; i++) {
+                if (!stalled[i]) {
+                    Assert.assertEquals("window " + i, expected, granted[i], expected / 100);
+                    checked++;
+                }
+            }
+            Assert.assertTrue("only " + checked + " windows without stall", checked >= windows / 2);
+        }
+    }
+
+    @Test
+    public void testPauseBelowResolutionIsCarriedOver() throws Exception {
+        try (SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMITION, 1024, TimeUnit.MILLISECONDS.toNanos(50))) {
+            Assert.assertEquals(0, limiter.reserve(1024));
+            // 10 ms worth, below the resolution
+            Assert.assertEquals(0, limiter.reserve(SPEED_LIMITION / 100));
+            // another 50 ms worth, the pause includes the carried 10 ms
+            long pause = limiter.reserve(SPEED_LIMITION / 20);
+            Assert.assertTrue("pause " + pause + " ns", pause > TimeUnit.MILLISECONDS.toNanos(55));
+        }
+    }
+
+    @Test
+    public void testReserveReturnsThePauseInsteadOfWaiting() throws IOException {
+        try (SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY)) {
+            int burst = limiter.getMaxBurstInBytes();
+            Assert.assertEquals(0, limiter.reserve(burst));
+            long pause = limiter.reserve(SPEED_LIMITION / 10);
+            // 1/10 sec worth of bytes on top of the burst
+            Assert.assertTrue("pause " + pause + " ns", pause > 90000000L && pause <= 100000000L);
+        }
+    }
+
+    @Test
+    public void testMultiGigabitRateChargesTheFractionsOfANanosecond() throws IOException {
+        long rate = 10L * 1024 * 1024 * 1024; // 10 GB/s, a byte costs ~0.09 ns
+        int reservations = 100000;
+        try (SpeedLimiter limiter = new SpeedLimiter(rate, SpeedLimiter.Mode.LAZY)) {
+            Assert.assertEquals(rate, limiter.getMaxSpeedInBytesPerSec());
+            Assert.assertEquals(Integer.MAX_VALUE, limiter.getMaxBurstInBytes());
+            // keep the theoretical arrival time bursts ahead of the clock, so every pause is returned
+            Assert.assertEquals(0, limiter.reserve(Integer.MAX_VALUE));
+            limiter.reserve(Integer.MAX_VALUE);
+            long before = System.nanoTime();
+            long first = limiter.reserve(Integer.MAX_VALUE);
+            long after = System.nanoTime();
+            for (int i = 0; i < reservations; i++) {
+                limiter.reserve(1);
+            }
+            long beforeLast = System.nanoTime();
+            long last = limiter.reserve(1);
+            long afterLast = System.nanoTime();
+            long expected = (reservations + 1) * TimeUnit.SECONDS.toNanos(1) / rate;
+            // how far the single bytes pushed the arrival time, bracketed by the clock around the calls
+            long min = last - first + beforeLast - after;
+            long max = last - first + afterLast - before;
+            Assert.assertTrue("expected " + expected + " ns within [" + min + ", " + max + "]",
+                    min <= expected + 1 && max >= expected - 1);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testTickRateBelowOneBytePerTickIsCarriedOver() throws Exception {
+        try (SpeedLimiter limiter = new SpeedLimiter(3, SpeedLimiter.Mode.TICK)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 4; i++) { // the first byte is the initial budget
+                limiter.acquire(1);
+            }
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            Assert.assertTrue("elapsed " + elapsedMs + " ms", elapsedMs >= 500 && elapsedMs < 1500);
+        }
+    }
+
+    @Test
+    public void testRateChangeKeepsTheBacklog() throws Exception {
+        try (SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY)) {
+            Assert.assertEquals(0, limiter.reserve(limiter.getMaxBurstInBytes()));
+            limiter.reserve(SPEED_LIMITION / 10); // 100 ms of backlog
+            limiter.setMaxSpeedInBytesPerSec(SPEED_LIMITION * 2);
+            // the backlog takes 50 ms at the new rate, plus 100 ms for these bytes,
+            // beyond the new burst of 200 ms
+            long pause = limiter.reserve(SPEED_LIMITION / 5);
+            // without the rescale it would be 200 ms, a stall of this thread only shortens it
+            Assert.assertTrue("pause " + pause + " ns", pause > 20000000L && pause <= 50000000L);
+        }
+    }
+
+    @Test
+    public void testRateChangeRebalancesTheChildren() throws Exception {
+        try (SpeedLimiter server = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY);
+                SpeedLimiter upload = new SpeedLimiter(SpeedLimiter.UNLIMITED, server)) {
+            upload.acquire(1);
+            Assert.assertEquals(SPEED_LIMITION, upload.getEffectiveSpeedInBytesPerSec());
+            server.setMaxSpeedInBytesPerSec(SPEED_LIMITION / 2);
+            Assert.assertEquals(SPEED_LIMITION / 2, upload.getEffectiveSpeedInBytesPerSec());
+            upload.setMaxSpeedInBytesPerSec(SPEED_LIMITION / 4);
+            Assert.assertEquals(SPEED_LIMITION / 4, upload.getEffectiveSpeedInBytesPerSec());
+            server.setMaxSpeedInBytesPerSec(SpeedLimiter.UNLIMITED);
+            upload.setMaxSpeedInBytesPerSec(SpeedLimiter.UNLIMITED);
+            Assert.assertTrue(upload.isUnlimited());
+        }
+    }
+
+    @Test
+    public void testUnlimitedTickLimiterCanBeLimitedLater() throws Exception {
+        try (SpeedLimiter limiter = new SpeedLimiter(SpeedLimiter.UNLIMITED, SpeedLimiter.Mode.TICK)) {
+            Assert.assertTrue(limiter.tryAcquire(Integer.MAX_VALUE));
+            limiter.setMaxSpeedInBytesPerSec(SPEED_LIMITION);
+            Assert.assertTrue(limiter.tryAcquire(limiter.getMaxBurstInBytes()));
+            Assert.assertFalse(limiter.tryAcquire(1));
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testClosedTickLimiterReleasesTheWaiters() throws Exception {
+        SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.TICK);
+        limiter.acquire(SPEED_LIMITION * 10); // 10 sec in debt
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                limiter.acquire(1);
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        waiter.start();
+        TimeUnit.MILLISECONDS.sleep(100);
+        Assert.assertTrue(waiter.isAlive());
+        limiter.close();
+        waiter.join();
+        Assert.assertTrue(failure.get() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testInterruptedAcquireGivesTheBytesBack() throws Exception {
+        try (SpeedLimiter server = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY);
+                SpeedLimiter upload = new SpeedLimiter(SpeedLimiter.UNLIMITED, server)) {
+            int burst = upload.getMaxBurstInBytes();
+            Thread.currentThread().interrupt();
+            try {
+                upload.acquire(SPEED_LIMITION * 10); // 10 sec
+                Assert.fail("should be interrupted");
+            } catch (InterruptedException expected) {
+                Assert.assertFalse(Thread.interrupted());
+            }
+            Assert.assertTrue(server.tryAcquire(burst / 2));
+        }
+    }
+
+    @Test
+    public void testChildIsChargedAgainstParent() throws Exception {
+        try (SpeedLimiter server = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY);
+                SpeedLimiter upload = new SpeedLimiter(SpeedLimiter.UNLIMITED, server)) {
+            Assert.assertFalse(upload.isUnlimited());
+            Assert.assertTrue(upload.tryAcquire(server.getMaxBurstInBytes()));
+            Assert.assertFalse(server.tryAcquire(server.getMaxBurstInBytes()));
+        }
+    }
+
+    @Test
+    public void testStatisticsAreRecordedOnTheWholeChain() throws Exception {
+        try (SpeedLimiter server = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY);
+                SpeedLimiter upload = new SpeedLimiter(SpeedLimiter.UNLIMITED, server)) {
+            int burst = upload.getMaxBurstInBytes();
+            Assert.assertTrue(upload.tryAcquire(burst));
+            Assert.assertFalse(upload.tryAcquire(burst));
+            Assert.assertEquals(1, server.getActiveChildCount());
+            Assert.assertEquals(0, upload.getStallCount());
+
+            long waited = upload.acquire(SPEED_LIMITION / 20); // 50 ms
+            Assert.assertTrue("waited " + waited + " ns", waited > 0);
+            for (SpeedLimiter limiter : new SpeedLimiter[] { server, upload }) {
+                Assert.assertEquals(burst + SPEED_LIMITION / 20, limiter.getGrantedBytes());
+                Assert.assertEquals(1, limiter.getStallCount());
+                Assert.assertEquals(waited, limiter.getWaitedNanos());
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testFailedTryAcquireIsRolledBack() throws Exception {
+        try (SpeedLimiter server = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY);
+                SpeedLimiter upload = new SpeedLimiter(SPEED_LIMITION * 10, server)) {
+            int burst = server.getMaxBurstInBytes();
+            Assert.assertTrue(server.tryAcquire(burst));
+            Assert.assertFalse(upload.tryAcquire(burst));
+            // the failed acquire must not have charged the upload limiter
+            Assert.assertTrue(upload.getBytesRemains() >= upload.getMaxBurstInBytes() - 1);
+        }
+    }
+
+    @Test
+    public void testParentRateIsSharedFairlyAmongActiveChildren() throws Exception {
+        try (SpeedLimiter server = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY);
+                SpeedLimiter client = new SpeedLimiter(SpeedLimiter.UNLIMITED, server);
+                SpeedLimiter slowUpload = new SpeedLimiter(SPEED_LIMITION / 10, client);
+                SpeedLimiter fastUpload = new SpeedLimiter(SPEED_LIMITION, client);
+                SpeedLimiter otherClient = new SpeedLimiter(SPEED_LIMITION, server)) {
+            fastUpload.acquire(1);
+            Assert.assertEquals(SPEED_LIMITION, fastUpload.getEffectiveSpeedInBytesPerSec());
+
+            slowUpload.acquire(1);
+            Assert.assertEquals(SPEED_LIMITION / 10, slowUpload.getEffectiveSpeedInBytesPerSec());
+            Assert.assertEquals(SPEED_LIMITION - SPEED_LIMITION / 10, fastUpload.getEffectiveSpeedInBytesPerSec());
+
+            otherClient.acquire(1);
+            Assert.assertEquals(SPEED_LIMITION / 2, client.getEffectiveSpeedInBytesPerSec());
+            Assert.assertEquals(SPEED_LIMITION / 2, otherClient.getEffectiveSpeedInBytesPerSec());
+            Assert.assertEquals(SPEED_LIMITION / 2 - SPEED_LIMITION / 10, fastUpload.getEffectiveSpeedInBytesPerSec());
+
+            otherClient.close();
+            slowUpload.close();
+            Assert.assertEquals(SPEED_LIMITION, fastUpload.getEffectiveSpeedInBytesPerSec());
+        }
+    }
+
+    @Test
+    public void testParentRateIsSharedByWeightAndPriority() throws Exception {
+        try (SpeedLimiter server = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY);
+                SpeedLimiter light = new SpeedLimiter(SpeedLimiter.UNLIMITED, server);
+                SpeedLimiter heavy = new SpeedLimiter(SpeedLimiter.UNLIMITED, server);
+                SpeedLimiter interactive = new SpeedLimiter(SpeedLimiter.UNLIMITED, server)) {
+            heavy.setWeight(3);
+            light.acquire(1);
+            heavy.acquire(1);
+            Assert.assertEquals(SPEED_LIMITION / 4, light.getEffectiveSpeedInBytesPerSec());
+            Assert.assertEquals(SPEED_LIMITION * 3 / 4, heavy.getEffectiveSpeedInBytesPerSec());
+
+            // 4 + 12 + 16
+            interactive.setPriority(SpeedLimiter.Priority.INTERACTIVE);
+            interactive.acquire(1);
+            Assert.assertEquals(SPEED_LIMITION / 2, interactive.getEffectiveSpeedInBytesPerSec());
+            Assert.assertEquals(SPEED_LIMITION * 3 / 8, heavy.getEffectiveSpeedInBytesPerSec());
+            Assert.assertEquals(SPEED_LIMITION / 8, light.getEffectiveSpeedInBytesPerSec());
+
+            heavy.setWeight(1);
+            Assert.assertEquals(SPEED_LIMITION * 2 / 3, interactive.getEffectiveSpeedInBytesPerSec(), 1);
+        }
+    }
+
+    @Test
+    public void testInteractiveUploadKeepsItsLatencyUnderBulkLoad() throws Exception {
+        int rate = 1024 * 1024; // 1 MB/s
+        int bulkChunk = 16 * 1024;
+        int interactiveChunk = 4 * 1024;
+        int interactiveSize = 64 * 1024;
+        try (SpeedLimiter server = new SpeedLimiter(rate, bulkChunk, TimeUnit.MILLISECONDS.toNanos(1))) {
+            List<SpeedLimiter> bulks = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            AtomicLong bulkBytes = new AtomicLong();
+            for (int i = 0; i < THREADS; i++) {
+                SpeedLimiter bulk = new SpeedLimiter(SpeedLimiter.UNLIMITED, server);
+                bulk.setPriority(SpeedLimiter.Priority.BULK);
+                bulks.add(bulk);
+                Thread thread = new Thread(() -> {
+                    try {
+                        while (!bulk.isClosed()) {
+                            bulk.acquire(bulkChunk);
+                            bulkBytes.addAndGet(bulkChunk);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            // the bulk uploads saturate the server
+            Thread.sleep(300);
+            Assert.assertTrue(bulkBytes.get() > 0);
+
+            long elapsed;
+            try (SpeedLimiter interactive = new SpeedLimiter(SpeedLimiter.UNLIMITED, server)) {
+                interactive.setPriority(SpeedLimiter.Priority.INTERACTIVE);
+                long start = System.nanoTime();
+                for (int sent = 0; sent < interactiveSize; sent += interactiveChunk) {
+                    interactive.acquire(interactiveChunk);
+                }
+                elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            }
+            for (SpeedLimiter bulk : bulks) {
+                bulk.close();
+            }
+            for (Thread thread : threads) {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            }
+            // 2/3 of the server, ~100ms, plus the bulk bytes already reserved on the server;
+            // an equal share (1/9) would take ~600ms
+            Assert.assertTrue("elapsed " + elapsed + " ms", elapsed < 350);
+        }
+    }
+
+    private void assertConcurrentTryAcquireIsAtomic(SpeedLimiter.Mode mode) throws Exception {
+        try (SpeedLimiter limiter = new SpeedLimiter(SPEED_LIMITION, mode)) {
+            AtomicLong granted = new AtomicLong();
+            List<Thread> threads = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < THREADS; i++) {
+                Thread thread = new Thread(() -> {
+                    for (int j = 0; j < 10000; j++) {
+                        if (limiter.tryAcquire(16)) {
+                            granted.addAndGet(16);
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double elapsedSec = (System.nanoTime() - start) / 1e9;
+            // a full tick of refill may have happened on top of the initial burst
+            long allowed = 2L * limiter.getMaxBurstInBytes() + (long) (SPEED_LIMITION * elapsedSec) + 16;
+            Assert.assertTrue("granted " + granted.get() + " > " + allowed, granted.get() <= allowed);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.elminster.poc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SpeedLimiterEventsTest {
+
+    private static final int SPEED_LIMITION = 100 * 1024; // 100 KB/s
+
+    @Test
+    public void testStallsAndLifecycleAreRecorded() throws Exception {
+        Path dump = Files.createTempFile("speed-limiter-events", ".jfr");
+        long serverId;
+        long uploadId;
+        try (Recording recording = new Recording()) {
+            recording.enable("com.elminster.poc.LimiterCreated");
+            recording.enable("com.elminster.poc.LimiterClosed");
+            recording.enable("com.elminster.poc.ThrottleStall").withThreshold(Duration.ofMillis(1));
+            recording.start();
+            try (SpeedLimiter server = new SpeedLimiter(SPEED_LIMITION, SpeedLimiter.Mode.LAZY);
+                    SpeedLimiter upload = new SpeedLimiter(SpeedLimiter.UNLIMITED, server)) {
+                serverId = server.getId();
+                uploadId = upload.getId();
+                // one burst at once, then 100ms worth of bytes to wait for
+                upload.acquire(SPEED_LIMITION / 5);
+                upload.acquire(SPEED_LIMITION / 10);
+                // no stall
+                upload.acquire(1);
+            }
+            recording.stop();
+            recording.dump(dump);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        Files.delete(dump);
+
+        List<RecordedEvent> stalls = ofType(events, "com.elminster.poc.ThrottleStall");
+        Assert.assertEquals(String.valueOf(stalls), 1, stalls.size());
+        RecordedEvent stall = stalls.get(0);
+        Assert.assertEquals(uploadId, stall.getLong("requesterId"));
+        // the only child has the whole server as its share, and waits for it before the server
+        Assert.assertEquals(uploadId, stall.getLong("limiterId"));
+        Assert.assertEquals(SPEED_LIMITION / 10, stall.getLong("bytes"));
+        Assert.assertTrue(String.valueOf(stall), stall.getDuration().toMillis() >= 50);
+
+        List<RecordedEvent> created = ofType(events, "com.elminster.poc.LimiterCreated");
+        Assert.assertEquals(2, created.size());
+        Assert.assertEquals(serverId, created.get(1).getLong("parentId"));
+
+        List<RecordedEvent> closed = ofType(events, "com.elminster.poc.LimiterClosed");
+        Assert.assertEquals(2, closed.size());
+        Assert.assertEquals(uploadId, closed.get(0).getLong("limiterId"));
+        Assert.assertEquals(SPEED_LIMITION * 3 / 10 + 1, closed.get(0).getLong("grantedBytes"));
+        Assert.assertEquals(1, closed.get(0).getLong("stalls"));
+    }
+
+    @Test
+    public void testNothingIsTimedWithoutARecording() {
+        Assert.assertNull(SpeedLimiterEvents.beginStall());
+        Assert.assertNull(SpeedLimiterEvents.beginRefill());
+        try (Recording recording = new Recording()) {
+            recording.enable("com.elminster.poc.ThrottleStall");
+            recording.start();
+            Assert.assertNotNull(SpeedLimiterEvents.beginStall());
+        }
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String type) {
+        return events.stream()
+                .filter(event -> type.equals(event.getEventType().getName()))
+                .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+                .collect(Collectors.toList());
+    }
+}
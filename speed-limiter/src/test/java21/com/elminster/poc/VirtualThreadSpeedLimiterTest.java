@@ -0,0 +1,93 @@
+package com.elminster.poc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VirtualThreadSpeedLimiterTest {
+
+    private static final int SPEED_LIMITION = 1024 * 1024; // 1 MB/s
+    private static final int UPLOADS = 1000;
+
+    @Test
+    public void testWaitingVirtualThreadsDoNotPinTheirCarrier() throws Exception {
+        Path dump = Files.createTempFile("speed-limiter-pinned", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+            runUploadsOnVirtualThreads(SpeedLimiter.Mode.LAZY);
+            runUploadsOnVirtualThreads(SpeedLimiter.Mode.TICK);
+            recording.stop();
+            recording.dump(dump);
+        }
+        // the recording also takes the events of the limiters, which are enabled by default
+        List<RecordedEvent> pinned = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+            if ("jdk.VirtualThreadPinned".equals(event.getEventType().getName())) {
+                pinned.add(event);
+            }
+        }
+        Files.delete(dump);
+        Assert.assertEquals(String.valueOf(pinned), 0, pinned.size());
+    }
+
+    @Test
+    public void testInterruptedVirtualThreadStopsWaiting() throws Exception {
+        try (SpeedLimiter limiter = new SpeedLimiter(1024, SpeedLimiter.Mode.LAZY)) {
+            limiter.acquire(limiter.getMaxBurstInBytes());
+            Thread waiter = Thread.ofVirtual().start(() -> {
+                try {
+                    limiter.acquire(10 * 1024); // 10 sec
+                    Assert.fail("should be interrupted");
+                } catch (InterruptedException expected) {
+                    Assert.assertFalse(Thread.currentThread().isInterrupted());
+                }
+            });
+            Thread.sleep(100);
+            long now = System.nanoTime();
+            waiter.interrupt();
+            waiter.join(1000);
+            Assert.assertFalse(waiter.isAlive());
+            Assert.assertTrue(System.nanoTime() - now < Duration.ofMillis(500).toNanos());
+        }
+    }
+
+    private void runUploadsOnVirtualThreads(SpeedLimiter.Mode mode) throws Exception {
+        try (SpeedLimiter server = new SpeedLimiter(SPEED_LIMITION, mode);
+                ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> uploads = new ArrayList<>();
+            for (int i = 0; i < UPLOADS; i++) {
+                uploads.add(executor.submit(() -> {
+                    // tick limiters can't have children, the uploads share the server limiter then
+                    SpeedLimiter upload = SpeedLimiter.Mode.LAZY == mode
+                            ? new SpeedLimiter(SpeedLimiter.UNLIMITED, server) : server;
+                    for (int j = 0; j < 4; j++) {
+                        upload.acquire(64);
+                    }
+                    if (upload != server) {
+                        upload.close();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> upload : uploads) {
+                upload.get();
+            }
+        } catch (IOException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+}